@@ -0,0 +1,167 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Big-endian decoding cursor over a window of the file.
+ *
+ * The cursor keeps a single buffer per reader : primitives are decoded in
+ * place from that buffer and the subclasses only have to move the window
+ * when a read falls outside of it. No object is allocated while decoding
+ * numbers, which matters when thousands of files are scanned.
+ */
+public abstract class BufferedSaveInput implements SaveInput {
+
+    /**
+     * Current window on the file. Its position is the cursor.
+     */
+    protected ByteBuffer buffer;
+
+    /**
+     * Offset in the file of the first byte of the window.
+     */
+    protected long bufferStart;
+
+    /**
+     * Reusable array used to decode strings from a buffer without backing
+     * array.
+     */
+    private byte[] scratch = new byte[64];
+
+    protected BufferedSaveInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Moves the window so that it starts at the given offset and holds at
+     * least length bytes.
+     *
+     * @param position offset in the file of the first byte of the window
+     * @param length the minimum number of bytes available from position
+     * @throws IOException when the end of the file is reached
+     */
+    protected abstract void fill(long position, int length) throws IOException;
+
+    /**
+     * Makes sure that the next length bytes are in the window.
+     *
+     * @param length the number of bytes to read
+     * @return the window, positioned on the cursor
+     * @throws IOException when the end of the file is reached
+     */
+    protected final ByteBuffer ensure(int length) throws IOException {
+        if (this.buffer.remaining() < length) {
+            fill(getFilePointer(), length);
+            if (this.buffer.remaining() < length) {
+                throw new EOFException();
+            }
+        }
+        return this.buffer;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return ensure(1).get();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return ensure(2).getShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return ensure(4).getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return ensure(8).getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return ensure(4).getFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return ensure(8).getDouble();
+    }
+
+    @Override
+    public void readFully(byte[] dst, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, ensure(1).remaining());
+            this.buffer.get(dst, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public ByteBuffer readBuffer(int len) throws IOException {
+        ByteBuffer window = ensure(len);
+        ByteBuffer result = window.slice();
+        result.limit(len);
+        window.position(window.position() + len);
+        return result.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    @Override
+    public String readString(int length) throws IOException {
+        ByteBuffer window = ensure(length);
+        String result;
+        if (window.hasArray()) {
+            result = new String(window.array(), window.arrayOffset() + window.position(), length, StandardCharsets.UTF_8);
+            window.position(window.position() + length);
+        } else {
+            if (this.scratch.length < length) {
+                this.scratch = new byte[length];
+            }
+            window.get(this.scratch, 0, length);
+            result = new String(this.scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    @Override
+    public long getFilePointer() {
+        return this.bufferStart + this.buffer.position();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos >= this.bufferStart && pos <= this.bufferStart + this.buffer.limit()) {
+            this.buffer.position((int) (pos - this.bufferStart));
+        } else {
+            // the window is moved on the next read
+            this.buffer.position(0);
+            this.buffer.limit(0);
+            this.bufferStart = pos;
+        }
+    }
+}
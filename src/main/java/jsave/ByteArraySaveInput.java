@@ -0,0 +1,83 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SaveInput} decoding a record held in memory.
+ *
+ * The window of the cursor is the whole array, which is wrapped without any
+ * copy. The same instance can be reset on another record.
+ */
+public class ByteArraySaveInput extends BufferedSaveInput {
+
+    public ByteArraySaveInput() {
+        super(ByteBuffer.allocate(0));
+    }
+
+    /**
+     * Creates an input on the first length bytes of the array.
+     *
+     * @param data the bytes to decode
+     * @param length the number of valid bytes in data
+     */
+    public ByteArraySaveInput(byte[] data, int length) {
+        this();
+        reset(data, length);
+    }
+
+    /**
+     * Moves the input on the first length bytes of the array and rewinds it.
+     *
+     * @param data the bytes to decode
+     * @param length the number of valid bytes in data
+     */
+    public final void reset(byte[] data, int length) {
+        if (this.buffer.array() != data) {
+            this.buffer = ByteBuffer.wrap(data);
+        }
+        this.buffer.clear();
+        this.buffer.limit(length);
+        this.bufferStart = 0;
+    }
+
+    @Override
+    protected void fill(long position, int length) throws IOException {
+        throw new EOFException();
+    }
+
+    @Override
+    public SaveInput duplicate() {
+        ByteArraySaveInput copy = new ByteArraySaveInput(this.buffer.array(), this.buffer.limit());
+        copy.buffer.position(this.buffer.position());
+        return copy;
+    }
+
+    @Override
+    public long length() {
+        return this.buffer.limit();
+    }
+
+    @Override
+    public void close() {
+    }
+}
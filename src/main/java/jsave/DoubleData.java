@@ -0,0 +1,105 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * Storage of double precision floats (IDL DOUBLE).
+ */
+public class DoubleData extends MatrixData {
+
+    private final double[] values;
+
+    public DoubleData(int size) {
+        this(new double[size]);
+    }
+
+    /**
+     * Wraps an array without copying it.
+     *
+     * @param values the values
+     */
+    public DoubleData(double[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public long size() {
+        return this.values.length;
+    }
+
+    @Override
+    public double get(long index) {
+        return this.values[(int) index];
+    }
+
+    @Override
+    public void set(long index, double value) {
+        this.values[(int) index] = value;
+    }
+
+    @Override
+    public int getTypecode() {
+        return 5;
+    }
+
+    @Override
+    public double[] getArray() {
+        return this.values;
+    }
+
+    @Override
+    public MatrixData newInstance(long size) {
+        return isHeapSize(size) ? new DoubleData((int) size) : OffHeapData.allocate(getTypecode(), size);
+    }
+
+    @Override
+    public void copyTo(long srcIndex, long srcStride, MatrixData target, long targetIndex, long targetStride, int count) {
+        if (!(target instanceof DoubleData) || srcStride == 1 && targetStride == 1) {
+            super.copyTo(srcIndex, srcStride, target, targetIndex, targetStride, count);
+            return;
+        }
+        double[] dst = ((DoubleData) target).values;
+        int s = (int) srcIndex;
+        int t = (int) targetIndex;
+        for (int i = 0; i < count; i++, s += srcStride, t += targetStride) {
+            dst[t] = this.values[s];
+        }
+    }
+
+    @Override
+    int elementSize() {
+        return 8;
+    }
+
+    @Override
+    void decode(ByteBuffer src, long index, long stride, int count) {
+        DoubleBuffer view = src.asDoubleBuffer();
+        if (stride == 1) {
+            view.get(this.values, (int) index, count);
+        } else {
+            for (int i = 0, j = (int) index; i < count; i++, j += (int) stride) {
+                this.values[j] = view.get(i);
+            }
+        }
+        src.position(src.position() + count * 8);
+    }
+}
@@ -0,0 +1,80 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.IOException;
+
+/**
+ * Creates an IDL pointer to a heap variable.
+ *
+ * The pointed variable is only read from the file when the pointer is
+ * dereferenced, and is then kept by the reader, so that the pointers to the
+ * same heap variable return the same object.
+ */
+public class IdlPointer {
+
+    private final JSave reader;
+    private final int index;
+
+    /**
+     * Constructs a pointer.
+     *
+     * @param reader the reader of the file holding the heap
+     * @param index the index of the heap variable, 0 for a null pointer
+     */
+    IdlPointer(JSave reader, int index) {
+        this.reader = reader;
+        this.index = index;
+    }
+
+    /**
+     * Returns the index of the pointed variable in the heap.
+     *
+     * @return the heap index, 0 for a null pointer
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Tells whether the pointer is null.
+     *
+     * @return true for a null pointer
+     */
+    public boolean isNull() {
+        return this.index == 0;
+    }
+
+    /**
+     * Returns the pointed variable, reading it on the first access.
+     *
+     * @return the variable, null for a null pointer
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the variable cannot be decoded
+     * @see JSave#getHeapVariable(int)
+     */
+    public Object get() throws IOException, Exception {
+        return isNull() ? null : this.reader.getHeapVariable(this.index);
+    }
+
+    @Override
+    public String toString() {
+        return isNull() ? "<NullPointer>" : "<PtrHeapVar" + this.index + ">";
+    }
+}
@@ -0,0 +1,73 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of {@link Inflater} shared by the readers.
+ *
+ * An inflater holds native memory, so instances are reset and reused rather
+ * than created for every compressed record.
+ */
+final class InflaterPool {
+
+    /**
+     * Maximum number of idle inflaters kept in the pool.
+     */
+    private static final int MAX_IDLE = 64;
+
+    private static final ConcurrentLinkedQueue<Inflater> IDLE = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger IDLE_COUNT = new AtomicInteger();
+
+    private InflaterPool() {
+    }
+
+    /**
+     * Takes an inflater from the pool, creating one when the pool is empty.
+     *
+     * @return a ready to use inflater
+     */
+    static Inflater acquire() {
+        Inflater inflater = IDLE.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            IDLE_COUNT.decrementAndGet();
+        }
+        return inflater;
+    }
+
+    /**
+     * Gives an inflater back to the pool.
+     *
+     * @param inflater the inflater returned by {@link #acquire()}
+     */
+    static void release(Inflater inflater) {
+        if (IDLE_COUNT.incrementAndGet() <= MAX_IDLE) {
+            inflater.reset();
+            IDLE.offer(inflater);
+        } else {
+            IDLE_COUNT.decrementAndGet();
+            inflater.end();
+        }
+    }
+}
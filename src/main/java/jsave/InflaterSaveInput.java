@@ -0,0 +1,191 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * {@link SaveInput} inflating a compressed record while it is read.
+ *
+ * Unlike {@link RecordInflater}, the record is never held in memory as a
+ * whole : the window only keeps the bytes that are being decoded, so that an
+ * array larger than the heap can be read piece by piece. The offsets are
+ * relative to the beginning of the inflated record and the cursor can only
+ * move forward.
+ */
+class InflaterSaveInput extends BufferedSaveInput {
+
+    /**
+     * Size of the first chunk of compressed bytes read from the file. The
+     * chunks grow up to CHUNK_SIZE, so that reading the head of a record
+     * only reads a few kilobytes.
+     */
+    private static final int FIRST_CHUNK_SIZE = 4 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final SaveInput file;
+    private final long start;
+    private final long end;
+    private long remaining;
+    private byte[] chunk = new byte[FIRST_CHUNK_SIZE];
+    private byte[] window;
+
+    /**
+     * Offset of the first byte held in the window.
+     */
+    private long windowStart;
+
+    /**
+     * Offset following the last inflated byte, which is also the last byte
+     * held in the window.
+     */
+    private long inflated;
+    private Inflater inflater = InflaterPool.acquire();
+
+    /**
+     * Creates an input on the compressed bytes located between start and
+     * end.
+     *
+     * @param file the input on the compressed file, owned by this input
+     * @param start offset of the first compressed byte
+     * @param end offset following the last compressed byte
+     * @param windowSize the initial size of the window
+     * @throws IOException when the file cannot be positioned
+     */
+    InflaterSaveInput(SaveInput file, long start, long end, int windowSize) throws IOException {
+        super(ByteBuffer.allocate(0));
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        this.remaining = end - start;
+        file.seek(start);
+        this.window = new byte[Math.max(windowSize, 8)];
+        this.buffer = ByteBuffer.wrap(this.window);
+        this.buffer.limit(0);
+    }
+
+    @Override
+    protected void fill(long position, int length) throws IOException {
+        if (position < this.windowStart) {
+            throw new IOException("Cannot move backwards in a compressed record");
+        }
+        int kept = 0;
+        if (position <= this.inflated) {
+            kept = (int) (this.inflated - position);
+            System.arraycopy(this.window, (int) (position - this.windowStart), this.window, 0, kept);
+        } else {
+            // the bytes before position are inflated and dropped
+            while (this.inflated < position) {
+                int n = inflate(this.window, 0, (int) Math.min(this.window.length, position - this.inflated));
+                if (n < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+        if (this.window.length < length) {
+            byte[] larger = new byte[length];
+            System.arraycopy(this.window, 0, larger, 0, kept);
+            this.window = larger;
+            this.buffer = ByteBuffer.wrap(this.window);
+        }
+        int size = kept;
+        while (size < length) {
+            int n = inflate(this.window, size, this.window.length - size);
+            if (n < 0) {
+                break;
+            }
+            size += n;
+        }
+        this.windowStart = position;
+        this.buffer.clear();
+        this.buffer.limit(size);
+        this.bufferStart = position;
+    }
+
+    /**
+     * Inflates at most len bytes.
+     *
+     * @param dst the destination array
+     * @param off the offset of the first inflated byte in dst
+     * @param len the maximum number of bytes
+     * @return the number of inflated bytes, or -1 at the end of the record
+     * @throws IOException when the record cannot be read or inflated
+     */
+    private int inflate(byte[] dst, int off, int len) throws IOException {
+        if (this.inflater == null) {
+            throw new IOException("Input closed");
+        }
+        try {
+            while (!this.inflater.finished()) {
+                if (this.inflater.needsInput()) {
+                    if (this.remaining == 0) {
+                        throw new EOFException("Truncated compressed record at " + this.start);
+                    }
+                    if (this.inflater.getBytesRead() > 0 && this.chunk.length < CHUNK_SIZE) {
+                        this.chunk = new byte[2 * this.chunk.length];
+                    }
+                    int n = (int) Math.min(this.chunk.length, this.remaining);
+                    this.file.readFully(this.chunk, 0, n);
+                    this.remaining -= n;
+                    this.inflater.setInput(this.chunk, 0, n);
+                }
+                int n = this.inflater.inflate(dst, off, len);
+                if (n > 0) {
+                    this.inflated += n;
+                    return n;
+                }
+                if (this.inflater.needsDictionary()) {
+                    throw new IOException("Unsupported preset dictionary in record at " + this.start);
+                }
+            }
+            return -1;
+        } catch (DataFormatException ex) {
+            throw new IOException("Invalid compressed record at " + this.start, ex);
+        }
+    }
+
+    @Override
+    public SaveInput duplicate() throws IOException {
+        throw new UnsupportedOperationException("A compressed record is read only once");
+    }
+
+    /**
+     * The inflated size is only known once the record is read, so the
+     * length of the compressed bytes is returned.
+     *
+     * @return the length of the compressed record
+     */
+    @Override
+    public long length() {
+        return this.end - this.start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.inflater != null) {
+            InflaterPool.release(this.inflater);
+            this.inflater = null;
+        }
+        this.file.close();
+    }
+}
@@ -19,23 +19,103 @@
 
 package jsave;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Reads JSave format.
  */
-public class JSave {
+public class JSave implements Closeable {
 
-    private final RandomAccessFile raf;
+    private final SaveInput input;
+
+    /**
+     * The SAVE file, null when the reader was created on an input.
+     */
+    private final File file;
     private HashMap<String, Object> variables;
     private HashMap<String, Object> metadata;
 
+    /**
+     * Records of the file, in the order in which they are stored.
+     */
+    private final List<RecordEntry> records;
+
+    /**
+     * VARIABLE records by variable name.
+     */
+    private final HashMap<String, RecordEntry> tableOfContents;
+
+    /**
+     * HEAP_DATA records by heap index. The heap variables are decoded by
+     * {@link #read()}, otherwise only when a pointer is dereferenced.
+     */
+    private final HashMap<Integer, RecordEntry> heap = new HashMap<>();
+
+    /**
+     * Heap variables already decoded, by heap index.
+     */
+    private final HashMap<Integer, Object> heapVariables = new HashMap<>();
+
+    /**
+     * Structures defined in the file, by name. The records decoded
+     * concurrently share it.
+     */
+    private final Map<String, HashMap<String, Object>> structDict = new ConcurrentHashMap<>();
+
+    /**
+     * True when the record bodies are zlib streams (file written with
+     * /COMPRESS).
+     */
+    private boolean compressed;
+
+    /**
+     * Inflates the records of a compressed file.
+     */
+    private final RecordInflater inflater = new RecordInflater();
+
+    /**
+     * Executor decoding the records concurrently, null to decode them on the
+     * calling thread.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Size in bytes from which the arrays are stored off-heap.
+     */
+    private long offHeapThreshold = Long.MAX_VALUE;
+
+    /**
+     * True once the file is closed : the variables which are not decoded yet
+     * can no longer be read.
+     */
+    private boolean closed;
+
+    /**
+     * Size of the header of a record.
+     */
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    /**
+     * Size of the block read at once when the file is only scanned.
+     */
+    private static final int SCAN_BUFFER_SIZE = 4 * 1024;
+
     private static final HashMap<Integer, String> RECTYPE_DICT = new HashMap<Integer, String>() {{
         put(0, "START_MARKER");
         put(1, "COMMON_VARIABLE");
@@ -54,158 +134,875 @@ public class JSave {
     }};
 
     public JSave(File file) throws FileNotFoundException {
-        this.raf = new RandomAccessFile(file, "r");
-        this.variables = new HashMap<>();
+        this(new RandomAccessSaveInput(file), file);
+    }
+
+    /**
+     * Creates a reader, optionally decoding the file from a memory-mapped
+     * view rather than through a {@link java.io.RandomAccessFile}.
+     *
+     * @param file the SAVE file
+     * @param memoryMapped true to map the file in memory
+     * @throws IOException when the file cannot be opened
+     */
+    public JSave(File file, boolean memoryMapped) throws IOException {
+        this(memoryMapped ? new MappedSaveInput(file) : new RandomAccessSaveInput(file), file);
+    }
+
+    /**
+     * Creates a reader on an already opened input.
+     *
+     * @param input the input from which the records are decoded
+     */
+    public JSave(SaveInput input) {
+        this(input, null);
+    }
+
+    private JSave(SaveInput input, File file) {
+        this.input = input;
+        this.file = file;
+        this.variables = new LinkedHashMap<>();
         this.metadata = new HashMap<>();
+        this.records = new ArrayList<>();
+        this.tableOfContents = new HashMap<>();
     }
 
+    /**
+     * Filter rejecting all the variables.
+     */
+    private static final VariableFilter NO_VARIABLE = new VariableFilter() {
+        @Override
+        public boolean accept(String varname, HashMap<String, Object> typedesc) {
+            return false;
+        }
+    };
+
     public void read() throws IOException, Exception {
+        read((VariableFilter) null);
+    }
+
+    /**
+     * Reads the file, decoding only the given variables.
+     *
+     * The data of the other variables is skipped.
+     *
+     * @param names the names of the variables to decode
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the file is not a valid SAVE file
+     */
+    public void read(Set<String> names) throws IOException, Exception {
+        final Set<String> wanted = new HashSet<>();
+        for (String name : names) {
+            wanted.add(name.toLowerCase());
+        }
+        read(new VariableFilter() {
+            @Override
+            public boolean accept(String varname, HashMap<String, Object> typedesc) {
+                return wanted.contains(varname);
+            }
+        });
+    }
+
+    /**
+     * Reads the file, decoding only the variables accepted by the filter.
+     *
+     * The data of the other variables is skipped : they are still listed by
+     * {@link #getRecords()} but cannot be read once the file is closed. The
+     * heap variables are all decoded, so that the pointers can still be
+     * dereferenced, and the file is closed at the end.
+     *
+     * @param filter the filter selecting the variables, null to decode all of
+     * them
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the file is not a valid SAVE file
+     */
+    public void read(VariableFilter filter) throws IOException, Exception {
+        readRecords(filter);
+        for (Integer index : this.heap.keySet()) {
+            getHeapVariable(index);
+        }
+        close();
+    }
+
+    /**
+     * Walks the records of the file without decoding the variables.
+     *
+     * The metadata are read as usual but only the table of contents of the
+     * variables is kept : each variable is decoded when it is first requested
+     * by {@link #getVariable(String)}. The file stays opened until
+     * {@link #close()} is called.
+     *
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the file is not a valid SAVE file
+     */
+    public void readTableOfContents() throws IOException, Exception {
+        readRecords(NO_VARIABLE);
+    }
+
+    /**
+     * Reads the table of contents from a sidecar index, such as
+     * <code>file.sav.idx</code>, rather than walking the records.
+     *
+     * The index is used when the size, the modification time and the first
+     * bytes of the file still match those recorded in it. Otherwise the
+     * records are walked as by {@link #readTableOfContents()} and the index is
+     * written again. Failing to write the index does not fail the reading,
+     * the index being only a cache. The file stays opened until
+     * {@link #close()} is called.
+     *
+     * @param index the index file
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the file is not a valid SAVE file
+     */
+    public void readTableOfContents(File index) throws IOException, Exception {
+        if (this.file == null) {
+            throw new IllegalStateException("An index needs a reader created on a file");
+        }
+        RecordIndex recordIndex;
+        try {
+            recordIndex = RecordIndex.read(index, this.file, this.input);
+        } catch (IOException ex) {
+            // a damaged index is written again
+            recordIndex = null;
+        }
+        if (recordIndex != null) {
+            this.compressed = recordIndex.isCompressed();
+            this.metadata.putAll(recordIndex.getMetadata());
+            for (RecordEntry entry : recordIndex.getRecords()) {
+                this.records.add(entry);
+                if (entry.getName() != null) {
+                    this.tableOfContents.put(entry.getName(), entry);
+                }
+                Integer heapIndex = recordIndex.getHeapIndex(entry);
+                if (heapIndex != null) {
+                    this.heap.put(heapIndex, entry);
+                }
+            }
+            return;
+        }
+        readTableOfContents();
+        HashMap<RecordEntry, Integer> heapIndices = new HashMap<>();
+        for (Map.Entry<Integer, RecordEntry> entry : this.heap.entrySet()) {
+            heapIndices.put(entry.getValue(), entry.getKey());
+        }
+        try {
+            new RecordIndex(this.compressed, this.metadata, this.records, heapIndices).write(index, this.file, this.input);
+        } catch (IOException ex) {
+            // the index is only a cache
+        }
+    }
+
+    /**
+     * Reads the metadata and the description of the variables, without
+     * their data.
+     *
+     * Each record is left as soon as its type descriptor is decoded, so that
+     * only a few kilobytes are read per record : the body of a compressed
+     * record is only inflated up to the end of its type descriptor. The
+     * metadata and the table of contents are also kept by the reader. The
+     * file is closed at the end.
+     *
+     * @return the schema of the file
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the file is not a valid SAVE file
+     */
+    public SaveSchema scan() throws IOException, Exception {
+        try {
+            String signature = readSignature();
+            checkSignature(signature);
+            this.compressed = isCompressed();
+            while (true) {
+                RecordEntry entry = readRecordHeader();
+                HashMap<String, Object> record = decodeRecord(this.input, this.inflater, entry, NO_VARIABLE);
+                this.input.seek(entry.getNextrec());
+                if (addRecord(entry, record)) {
+                    break;
+                }
+            }
+        } finally {
+            this.input.close();
+        }
+        return new SaveSchema(this.metadata, this.records);
+    }
+
+    /**
+     * Reads the metadata and the description of the variables of a file,
+     * reading it by small blocks.
+     *
+     * @param file the SAVE file
+     * @return the schema of the file
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the file is not a valid SAVE file
+     * @see #scan()
+     */
+    public static SaveSchema scan(File file) throws IOException, Exception {
+        return new JSave(new RandomAccessSaveInput(file, SCAN_BUFFER_SIZE), file).scan();
+    }
+
+    private void readRecords(VariableFilter filter) throws IOException, Exception {
         String signature = readSignature();
         checkSignature(signature);
-        isCompressed();
+        this.compressed = isCompressed();
+        if (this.executor != null) {
+            readRecordsInParallel(filter);
+            return;
+        }
         while (true) {
-            HashMap<String, Object> record = readRecord();
-            if (record.containsKey("data")) { // Variables
-                this.getVariables().put(record.get("varname").toString().toLowerCase(), record.get("data"));
-            } else { // metadata
-                this.getMetadata().putAll(record);
-            }
-            if (record.containsKey("end") && Boolean.parseBoolean((String) record.get("end")) == true) {
+            RecordEntry entry = readRecordHeader();
+            HashMap<String, Object> record = decodeRecord(this.input, this.inflater, entry, filter);
+            this.input.seek(entry.getNextrec());
+            if (addRecord(entry, record)) {
                 break;
             }
         }
-        this.raf.close();
+        this.inflater.trim();
+    }
+
+    /**
+     * Reads the records of the file concurrently.
+     *
+     * A first pass only walks the record headers to locate the record
+     * bodies, which are independent byte ranges. The bodies are then decoded
+     * by the executor, inflating them first when the file is compressed. Each
+     * worker reads the file through its own cursor, with positional reads
+     * that do not contend on a shared file pointer. The decoded records are
+     * added in the order of the file. A record referring to a structure
+     * defined by a previous record may be decoded before its definition : only
+     * this record is then decoded again on the calling thread, once the
+     * previous records are decoded. Any other failure of a worker is thrown
+     * as is.
+     *
+     * @param filter the variables to decode, null for all of them
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the file is not a valid SAVE file
+     */
+    private void readRecordsInParallel(final VariableFilter filter) throws IOException, Exception {
+        List<RecordEntry> entries = new ArrayList<>();
+        RecordEntry last;
+        do {
+            last = readRecordHeader();
+            entries.add(last);
+            this.input.seek(last.getNextrec());
+        } while (!"END_MARKER".equals(last.getRectype()));
+
+        final ConcurrentLinkedQueue<RecordWorker> workers = new ConcurrentLinkedQueue<>();
+        List<Future<HashMap<String, Object>>> results = new ArrayList<>(entries.size());
+        try {
+            for (final RecordEntry entry : entries) {
+                results.add(this.executor.submit(new Callable<HashMap<String, Object>>() {
+                    @Override
+                    public HashMap<String, Object> call() throws Exception {
+                        RecordWorker worker = workers.poll();
+                        if (worker == null) {
+                            worker = new RecordWorker(input.duplicate());
+                        }
+                        try {
+                            return decodeRecord(worker.file, worker.inflater, entry, filter);
+                        } finally {
+                            workers.offer(worker);
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                HashMap<String, Object> record;
+                try {
+                    record = results.get(i).get();
+                } catch (ExecutionException ex) {
+                    if (!(ex.getCause() instanceof UndefinedStructureException)) {
+                        if (ex.getCause() instanceof Exception) {
+                            throw (Exception) ex.getCause();
+                        }
+                        throw ex;
+                    }
+                    record = decodeRecord(this.input, this.inflater, entries.get(i), filter);
+                }
+                addRecord(entries.get(i), record);
+            }
+        } finally {
+            for (Future<HashMap<String, Object>> result : results) {
+                result.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Adds a decoded record to the variables or to the metadata.
+     *
+     * @param entry the entry of the record
+     * @param record the decoded record
+     * @return true when the record is the END_MARKER
+     */
+    private boolean addRecord(RecordEntry entry, HashMap<String, Object> record) {
+        this.records.add(entry);
+        if (entry.getName() != null) {
+            this.tableOfContents.put(entry.getName(), entry);
+        }
+        if ("HEAP_DATA".equals(entry.getRectype())) {
+            this.heap.put((int) record.get("heap_index"), entry);
+        } else if (record.containsKey("data")) { // Variables
+            this.getVariables().put(record.get("varname").toString().toLowerCase(), record.get("data"));
+        } else if (!record.containsKey("varname")) { // metadata
+            this.getMetadata().putAll(record);
+        }
+        return record.containsKey("end") && Boolean.parseBoolean((String) record.get("end")) == true;
+    }
+
+    /**
+     * Sets the executor used to decode the records concurrently.
+     *
+     * The records are decoded by the executor rather than one after the other
+     * on the calling thread, so that a file holding several large variables
+     * is read in about the time of the largest one. The records of a
+     * compressed file are inflated by the executor as well.
+     *
+     * @param executor the executor, null to read the file on the calling
+     * thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the size from which the arrays are stored outside of the Java
+     * heap.
+     *
+     * Arrays larger than 2 GB are always stored off-heap. When the
+     * file is memory-mapped, an off-heap array is left in the mapped file
+     * whenever its layout allows it.
+     *
+     * @param bytes the size in bytes of the smallest array stored off-heap
+     */
+    public void setOffHeapThreshold(long bytes) {
+        this.offHeapThreshold = bytes;
+    }
+
+    /**
+     * Returns a variable, decoding it from the file on first access.
+     *
+     * @param name the variable name
+     * @return the variable or null when the file has no such variable
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the variable cannot be decoded
+     * @throws IllegalStateException when the variable was skipped and the file
+     * is closed
+     */
+    public Object getVariable(String name) throws IOException, Exception {
+        String key = name.toLowerCase();
+        if (this.variables.containsKey(key)) {
+            return this.variables.get(key);
+        }
+        RecordEntry entry = this.tableOfContents.get(key);
+        if (entry == null) {
+            return null;
+        }
+        checkOpen(entry);
+        SaveInput in = openRecord(entry);
+        in.seek(entry.getDataOffset());
+        Object data = readVariableData(in, entry);
+        this.inflater.trim();
+        this.variables.put(key, data);
+        return data;
+    }
+
+    /**
+     * Returns a heap variable, decoding it from the file on first access.
+     *
+     * The scalar pointers of the file are read as {@link IdlPointer}, the
+     * arrays and the structure tags of pointers as heap indices.
+     *
+     * @param index the heap index
+     * @return the heap variable or null when the heap has no such variable
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the variable cannot be decoded
+     */
+    public Object getHeapVariable(int index) throws IOException, Exception {
+        if (this.heapVariables.containsKey(index)) {
+            return this.heapVariables.get(index);
+        }
+        RecordEntry entry = this.heap.get(index);
+        if (entry == null) {
+            return null;
+        }
+        checkOpen(entry);
+        SaveInput in = openRecord(entry);
+        in.seek(entry.getDataOffset());
+        Object data = readVariableData(in, entry);
+        this.inflater.trim();
+        this.heapVariables.put(index, data);
+        return data;
+    }
+
+    /**
+     * Iterates over the z-planes of an array one at a time.
+     *
+     * @param name the variable name
+     * @return the iterator, to be closed, or null when the file has no such
+     * variable
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the variable is not an array of at most three
+     * dimensions
+     * @see #iteratePlanes(java.lang.String, int)
+     */
+    public PlaneIterator iteratePlanes(String name) throws IOException, Exception {
+        return iteratePlanes(name, 1);
+    }
+
+    /**
+     * Iterates over the z-planes of an array by blocks of planes.
+     *
+     * The planes are read from the file when the iterator moves, so that
+     * only one block is held in memory whatever the size of the array. In a
+     * compressed file the record is inflated as the planes are read. The
+     * table of contents must have been read.
+     *
+     * @param name the variable name
+     * @param planesPerBlock the number of planes decoded at once
+     * @return the iterator, to be closed, or null when the file has no such
+     * variable
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the variable is not an array of at most three
+     * dimensions
+     */
+    public PlaneIterator iteratePlanes(String name, int planesPerBlock) throws IOException, Exception {
+        RecordEntry entry = this.tableOfContents.get(name.toLowerCase());
+        if (entry == null) {
+            return null;
+        }
+        checkOpen(entry);
+        int[] dims = getMatrixDims(entry);
+        SaveInput in = openArray(entry);
+        try {
+            return new PlaneIterator(in, (int) entry.getTypedesc().get("typecode"), dims[0], dims[1], dims[2], planesPerBlock,
+                    this.offHeapThreshold);
+        } catch (IllegalArgumentException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads a region of an array.
+     *
+     * @param name the variable name
+     * @param x the coordinates along x, as accepted by {@link Range#parse}
+     * @param y the coordinates along y, as accepted by {@link Range#parse}
+     * @param z the coordinates along z, as accepted by {@link Range#parse}
+     * @return the region or null when the file has no such variable
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the variable is not an array of at most three
+     * dimensions
+     * @see #readSlab(java.lang.String, jsave.Range, jsave.Range, jsave.Range)
+     */
+    public Matrix readSlab(String name, String x, String y, String z) throws IOException, Exception {
+        return readSlab(name, Range.parse(x), Range.parse(y), Range.parse(z));
+    }
+
+    /**
+     * Reads a region of an array.
+     *
+     * Only the bytes of the region are read from the file, the rest of the
+     * array being skipped, so that a small region of a large cube is read
+     * without decoding the cube. When the variable is already decoded, the
+     * region is extracted from it. The table of contents must have been read.
+     *
+     * @param name the variable name
+     * @param x the coordinates along x
+     * @param y the coordinates along y
+     * @param z the coordinates along z
+     * @return the region or null when the file has no such variable
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the variable is not an array of at most three
+     * dimensions
+     * @throws IllegalArgumentException when a coordinate is outside of the
+     * array
+     */
+    public Matrix readSlab(String name, Range x, Range y, Range z) throws IOException, Exception {
+        String key = name.toLowerCase();
+        if (this.variables.get(key) instanceof Matrix) {
+            return ((Matrix) this.variables.get(key)).getSubMatrix(x, y, z);
+        }
+        RecordEntry entry = this.tableOfContents.get(key);
+        if (entry == null) {
+            return null;
+        }
+        checkOpen(entry);
+        int[] dims = getMatrixDims(entry);
+        try (SaveInput in = openArray(entry)) {
+            return Utils.read_slab(in, (int) entry.getTypedesc().get("typecode"), dims, x, y, z);
+        }
+    }
+
+    /**
+     * Reads the vectors along z of several pixels of an array in one block.
+     *
+     * Only the values of the pixels are read from the file. When the variable
+     * is already decoded, the vectors are copied from it. The table of
+     * contents must have been read.
+     *
+     * @param name the variable name
+     * @param x the x coordinates of the pixels
+     * @param y the y coordinates of the pixels
+     * @param spectra the block receiving the vector of the pixel i from
+     * spectra[i * deep]
+     * @return false when the file has no such variable
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the variable is not an array of at most three
+     * dimensions
+     * @see Matrix#getSpectra(int[], int[], double[], boolean)
+     */
+    public boolean readSpectra(String name, int[] x, int[] y, double[] spectra) throws IOException, Exception {
+        String key = name.toLowerCase();
+        if (this.variables.get(key) instanceof Matrix) {
+            ((Matrix) this.variables.get(key)).getSpectra(x, y, spectra);
+            return true;
+        }
+        RecordEntry entry = this.tableOfContents.get(key);
+        if (entry == null) {
+            return false;
+        }
+        checkOpen(entry);
+        int[] dims = getMatrixDims(entry);
+        try (SaveInput in = openArray(entry)) {
+            Utils.read_spectra(in, (int) entry.getTypedesc().get("typecode"), dims, x, y, spectra);
+        }
+        return true;
+    }
+
+    /**
+     * Checks that a variable can still be read from the file.
+     *
+     * @param entry the entry of the variable
+     * @throws IllegalStateException when the file is closed
+     */
+    private void checkOpen(RecordEntry entry) {
+        if (this.closed) {
+            throw new IllegalStateException("Variable " + (entry.getName() == null ? "of the heap" : entry.getName())
+                    + " was not loaded and the file is closed");
+        }
+    }
+
+    /**
+     * Returns the size along x, y and z of the matrix holding a variable.
+     *
+     * @param entry the entry of the variable
+     * @return the dimensions of the matrix
+     * @throws Exception when the variable is not an array of at most three
+     * dimensions
+     */
+    private int[] getMatrixDims(RecordEntry entry) throws Exception {
+        HashMap<String, Object> typedesc = entry.getTypedesc();
+        if (!(boolean) typedesc.get("array") || (boolean) typedesc.get("structure")) {
+            throw new Exception("Variable " + entry.getName() + " is not an array");
+        }
+        int[] dims = Utils.matrix_dims((HashMap) typedesc.get("array_desc"));
+        if (dims == null) {
+            throw new Exception("Variable " + entry.getName() + " has more than three dimensions");
+        }
+        return dims;
+    }
+
+    /**
+     * Opens a cursor of its own on the values of an array, which are inflated
+     * while they are read in a compressed file.
+     *
+     * @param entry the entry of the array
+     * @return the input positioned on the first value, to be closed
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the record is not a valid array
+     */
+    private SaveInput openArray(RecordEntry entry) throws IOException, Exception {
+        HashMap<String, Object> typedesc = entry.getTypedesc();
+        SaveInput in;
+        if (this.compressed) {
+            in = new InflaterSaveInput(this.input.duplicate(), entry.getOffset() + RECORD_HEADER_SIZE, entry.getNextrec(), 64 * 1024);
+        } else {
+            in = this.input.duplicate();
+        }
+        try {
+            in.seek(entry.getDataOffset());
+            if (Utils.read_long(in) != 7) {
+                throw new Exception("VARSTART is not 7");
+            }
+            if ((int) typedesc.get("typecode") == 1
+                    && Utils.read_long(in) != (int) Utils.desc_long((HashMap) typedesc.get("array_desc"), "nbytes")) {
+                throw new Exception("Error occurred while reading byte array");
+            }
+            return in;
+        } catch (Exception ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.input.close();
     }
 
     private String readSignature() throws IOException {
-        byte[] data = new byte[2];
-        this.raf.read(data);
-        String str = new String(data, StandardCharsets.UTF_8);
-        return str;
+        return this.input.readString(2);
     }
 
     private void checkSignature(String signature) throws Exception {
-        if (!"SR".equals("SR")) {
+        if (!"SR".equals(signature)) {
             throw new Exception("Invalid SIGNATURE: " + signature);
         }
     }
 
-    private boolean isCompressed() throws IOException {
-        byte[] data = new byte[2];
-        this.raf.read(data);
-        return true;
+    private boolean isCompressed() throws Exception {
+        int recfmt = this.input.readShort();
+        switch (recfmt) {
+            case 4:
+                return false;
+            case 6:
+                return true;
+            default:
+                throw new Exception("Invalid RECFMT: " + recfmt);
+        }
+    }
+
+    /**
+     * Returns the input from which the body of a record is decoded.
+     *
+     * For a compressed file, the body is inflated and decoded from memory.
+     * Otherwise the body is decoded from the file itself.
+     *
+     * @param entry the entry of the record
+     * @return the input on the body of the record
+     * @throws IOException when the record cannot be read or inflated
+     */
+    private SaveInput openRecord(RecordEntry entry) throws IOException {
+        return openRecord(this.input, this.inflater, entry);
+    }
+
+    /**
+     * Returns the input from which the body of a record is decoded.
+     *
+     * @param file the input on the file
+     * @param recordInflater the inflater of the calling thread
+     * @param entry the entry of the record
+     * @return the input on the body of the record
+     * @throws IOException when the record cannot be read or inflated
+     */
+    private SaveInput openRecord(SaveInput file, RecordInflater recordInflater, RecordEntry entry) throws IOException {
+        SaveInput in;
+        if (this.compressed && !"END_MARKER".equals(entry.getRectype())) {
+            in = recordInflater.inflate(file, entry.getOffset() + RECORD_HEADER_SIZE, entry.getNextrec());
+            entry.setEnd(in.length());
+        } else {
+            file.seek(entry.getOffset() + RECORD_HEADER_SIZE);
+            in = file;
+            entry.setEnd(entry.getNextrec());
+        }
+        return in;
+    }
+
+    /**
+     * Decodes a record, decoding the data of a variable only when the filter
+     * accepts it.
+     *
+     * When the data may be skipped, the body of a compressed record is
+     * inflated while its head is decoded, up to the end of the type
+     * descriptor. The whole body is then only inflated for an accepted
+     * variable, so that walking the table of contents neither inflates the
+     * skipped arrays in memory nor fails on records larger than 2 GB.
+     *
+     * @param file the input on the file
+     * @param recordInflater the inflater of the calling thread
+     * @param entry the entry of the record
+     * @param filter the variables to decode, null for all of them
+     * @return the decoded record
+     * @throws IOException when the record cannot be read or inflated
+     * @throws Exception when the record is not valid
+     */
+    private HashMap<String, Object> decodeRecord(SaveInput file, RecordInflater recordInflater, RecordEntry entry,
+            VariableFilter filter) throws IOException, Exception {
+        if (!this.compressed || filter == null || "END_MARKER".equals(entry.getRectype())) {
+            return readRecord(openRecord(file, recordInflater, entry), entry, filter);
+        }
+        HashMap<String, Object> record;
+        try (SaveInput in = new InflaterSaveInput(file.duplicate(), entry.getOffset() + RECORD_HEADER_SIZE,
+                entry.getNextrec(), SCAN_BUFFER_SIZE)) {
+            // the inflated length is unknown
+            entry.setEnd(-1);
+            record = readRecord(in, entry, NO_VARIABLE);
+        }
+        if ("VARIABLE".equals(entry.getRectype()) && filter.accept(entry.getName(), entry.getTypedesc())) {
+            SaveInput in = openRecord(file, recordInflater, entry);
+            in.seek(entry.getDataOffset());
+            record.put("data", readVariableData(in, entry));
+        }
+        return record;
+    }
+
+    /**
+     * Cursor and inflater owned by a thread decoding records.
+     */
+    private static final class RecordWorker {
+
+        private final SaveInput file;
+        private final RecordInflater inflater = new RecordInflater();
+
+        RecordWorker(SaveInput file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Reads the header of the record located at the current offset.
+     *
+     * @return the entry locating the record
+     * @throws IOException
+     * @throws Exception when the record type is unknown
+     */
+    private RecordEntry readRecordHeader() throws Exception {
+        long offset = this.input.getFilePointer();
+        int rectype = Utils.read_long(this.input);
+        long nextrec = Utils.read_uint32(this.input);
+        nextrec += Utils.read_uint32(this.input) << 32;
+        Utils.skip_bytes(this.input, 4);
+        if (!RECTYPE_DICT.containsKey(rectype)) {
+            throw new Exception("Unknown RECTYPE: " + rectype);
+        }
+        return new RecordEntry(RECTYPE_DICT.get(rectype), offset, nextrec);
+    }
+
+    /**
+     * Reads the type descriptor of a variable and locates its data.
+     *
+     * @param in the input on the body of the record
+     * @param entry the entry of the record
+     * @throws IOException
+     * @throws Exception
+     */
+    private void readTypedesc(SaveInput in, RecordEntry entry) throws Exception {
+        HashMap<String, Object> typedesc = Utils.read_typedesc(in, this.structDict);
+        entry.setTypedesc(typedesc);
+        entry.setDataOffset(in.getFilePointer());
+        if (typedesc.containsKey("array_desc")) {
+            entry.setNbytes(Utils.desc_long((HashMap) typedesc.get("array_desc"), "nbytes"));
+        } else if (entry.getEnd() >= 0) {
+            entry.setNbytes(entry.getEnd() - entry.getDataOffset());
+        } else {
+            entry.setNbytes(-1);
+        }
+    }
+
+    /**
+     * Decodes the data of a variable. The current offset must be the data
+     * offset of the entry.
+     *
+     * @param in the input on the body of the record
+     * @param entry the entry of the record
+     * @return the data
+     * @throws IOException
+     * @throws Exception
+     */
+    private Object readVariableData(SaveInput in, RecordEntry entry) throws Exception {
+        HashMap<String, Object> rectypedesc = entry.getTypedesc();
+        Object data;
+        if ((int) rectypedesc.get("typecode") == 0) {
+            if (entry.getEnd() == in.getFilePointer()) {
+                data = null;
+            } else {
+                throw new Exception("Unexpected type code: 0");
+            }
+        } else {
+            int varstart = Utils.read_long(in);
+            if (varstart != 7) {
+                throw new Exception("VARSTART is not 7");
+            }
+            if ((boolean) rectypedesc.get("structure")) {
+                data = Utils.read_structure(in, (HashMap) rectypedesc.get("array_desc"), (HashMap) rectypedesc.get("struct_desc"));
+            } else if ((boolean) rectypedesc.get("array")) {
+                data = Utils.read_array(in, (int) rectypedesc.get("typecode"), (HashMap) rectypedesc.get("array_desc"), this.offHeapThreshold);
+            } else {
+                int dtype = (int) rectypedesc.get("typecode");
+                data = Utils.read_data(in, dtype);
+                if (dtype == 10 || dtype == 11) {
+                    data = new IdlPointer(this, (int) data);
+                }
+            }
+        }
+        return data;
     }
 
     /**
      * Read the file and casting data depending on the type
      *
+     * @param in the input on the body of the record
+     * @param entry the entry of the record
+     * @param filter the variables to decode, null for all of them
      * @return
      * @throws IOException
      * @throws Exception
      */
-    private HashMap<String, Object> readRecord() throws Exception {
+    private HashMap<String, Object> readRecord(SaveInput in, RecordEntry entry, VariableFilter filter) throws Exception {
         HashMap record = new HashMap<>();
-        record.put("rectype", Utils.read_long(this.raf));
-        long nextrec = Utils.read_uint32(this.raf);
-        nextrec += Utils.read_uint32(this.raf) * 2 * Math.pow(2, 32);
-        Utils.skip_bytes(this.raf, 4);
-        if (!RECTYPE_DICT.containsKey(record.get("rectype"))) {
-            throw new Exception("Unknown RECTYPE: " + record.get("rectype"));
-        }
-
-        record.replace("rectype", RECTYPE_DICT.get(record.get("rectype")));
-        String rectype = (String) record.get("rectype");
+        record.put("rectype", entry.getRectype());
+        String rectype = entry.getRectype();
         switch (rectype) {
             case "VARIABLE":
-                record.put("varname", Utils.read_string(this.raf));
-                HashMap<String, Object> rectypedesc = Utils.read_typedesc(raf);
-                if ((int) rectypedesc.get("typecode") == 0) {
-                    if (nextrec == this.raf.getFilePointer()) {
-                        record.put("data", null);
-                    } else {
-                        throw new Exception("Unexpected type code: 0");
-                    }
-                } else {
-                    int varstart = Utils.read_long(raf);
-                    if (varstart != 7) {
-                        throw new Exception("VARSTART is not 7");
-                    }
-                    if ((boolean) rectypedesc.get("structure")) {
-                        record.put("data", Utils.read_structure(raf, (HashMap) rectypedesc.get("array_desc"), (HashMap) rectypedesc.get("struct_desc")));
-                    } else if ((boolean) rectypedesc.get("array")) {
-                        Matrix data = Utils.read_array(raf, (int) rectypedesc.get("typecode"), (HashMap) rectypedesc.get("array_desc"));
-                        record.put("data", data);
-                    } else {
-                        int dtype = (int) rectypedesc.get("typecode");
-                        record.put("data", Utils.read_data(raf, dtype));
-                    }
+                record.put("varname", Utils.read_string(in));
+                entry.setName(record.get("varname").toString().toLowerCase());
+                readTypedesc(in, entry);
+                if (filter == null || filter.accept(entry.getName(), entry.getTypedesc())) {
+                    record.put("data", readVariableData(in, entry));
                 }
                 break;
             case "HEAP_DATA":
-                record.put("heap_index", Utils.read_long(this.raf));
-                Utils.skip_bytes(this.raf, 4);
-                rectypedesc = Utils.read_typedesc(raf);
-                if ((int) rectypedesc.get("typecode") == 0) {
-                    if (nextrec == this.raf.getFilePointer()) {
-                        record.put("data", null);
-                    } else {
-                        throw new Exception("Unexpected type code: 0");
-                    }
-                } else {
-                    int varstart = Utils.read_long(raf);
-                    if (varstart != 7) {
-                        throw new Exception("VARSTART is not 7");
-                    }
-                    if ((boolean) rectypedesc.get("structure")) {
-                        record.put("data", Utils.read_structure(raf, (HashMap) rectypedesc.get("array_desc"), (HashMap) rectypedesc.get("struct_desc")));
-                    } else if ((boolean) rectypedesc.get("array")) {
-                        record.put("data", Utils.read_array(raf, (int) rectypedesc.get("typecode"), (HashMap) rectypedesc.get("array_desc")));
-                    } else {
-                        int dtype = (int) rectypedesc.get("typecode");
-                        record.put("data", Utils.read_data(raf, dtype));
-                    }
-                }
-
+                // decoded when a pointer is dereferenced
+                record.put("heap_index", Utils.read_long(in));
+                Utils.skip_bytes(in, 4);
+                readTypedesc(in, entry);
                 break;
             case "TIMESTAMP":
-                Utils.skip_bytes(this.raf, 4 * 256);
-                record.put("date", Utils.read_string(this.raf));
-                record.put("user", Utils.read_string(this.raf));
-                record.put("host", Utils.read_string(this.raf));
+                Utils.skip_bytes(in, 4 * 256);
+                record.put("date", Utils.read_string(in));
+                record.put("user", Utils.read_string(in));
+                record.put("host", Utils.read_string(in));
                 break;
             case "VERSION":
-                record.put("format", Utils.read_long(this.raf));
-                record.put("arch", Utils.read_string(this.raf));
-                record.put("os", Utils.read_string(this.raf));
-                record.put("release", Utils.read_string(this.raf));
+                record.put("format", Utils.read_long(in));
+                record.put("arch", Utils.read_string(in));
+                record.put("os", Utils.read_string(in));
+                record.put("release", Utils.read_string(in));
                 break;
-            case "IDENTIFICATON":
-                record.put("author", Utils.read_string(this.raf));
-                record.put("title", Utils.read_string(this.raf));
-                record.put("idcode", Utils.read_string(this.raf));
+            case "IDENTIFICATION":
+                record.put("author", Utils.read_string(in));
+                record.put("title", Utils.read_string(in));
+                record.put("idcode", Utils.read_string(in));
+                break;
+            case "PROMOTE64":
+                // the following records may be beyond 4 GB : their offsets
+                // use the high word of the record headers, and their arrays
+                // 64-bit descriptors (ARRSTART 18)
+                record.put("promote64", true);
                 break;
             case "NOTICE":
-                record.put("notice", Utils.read_string(this.raf));
+                record.put("notice", Utils.read_string(in));
                 break;
             case "DESCRIPTION":
-                record.put("description", Utils.read_string_data(this.raf));
+                record.put("description", Utils.read_string_data(in));
                 break;
             case "HEAP_HEADER":
-                record.put("nvalues", Utils.read_long(this.raf));
+                record.put("nvalues", Utils.read_long(in));
                 int length = (int) record.get("nvalues");
                 int[] indices = new int[length];
                 for (int i = 0; i < length; i++) {
-                    indices[i] = Utils.read_long(this.raf);
+                    indices[i] = Utils.read_long(in);
                 }
                 record.put("indices", indices);
                 break;
             case "COMMONBLOCK":
-                record.put("nvars", Utils.read_long(this.raf));
-                record.put("name", Utils.read_string(this.raf));
+                record.put("nvars", Utils.read_long(in));
+                record.put("name", Utils.read_string(in));
                 length = (int) record.get("nvars");
                 String[] varnames = new String[length];
                 for (int i = 0; i < length; i++) {
-                    varnames[i] = Utils.read_string(this.raf);
+                    varnames[i] = Utils.read_string(in);
                 }
                 record.put("varnames", varnames);
                 break;
@@ -222,9 +1019,7 @@ public class JSave {
                 throw new Exception("record['rectype']=" + rectype + " not implemented");
 
         }
-//        System.out.println(nextrec);
 
-        this.raf.seek(nextrec);
         return record;
     }
 
@@ -252,6 +1047,11 @@ public class JSave {
             if(entry.getValue() instanceof Matrix) {
                 Matrix matrix = (Matrix) entry.getValue();
                 System.out.println(matrix.shape());
+            } else if (entry.getValue() instanceof NDArray) {
+                System.out.println(((NDArray) entry.getValue()).shape());
+            } else if (entry.getValue() instanceof Structure) {
+                Structure structure = (Structure) entry.getValue();
+                System.out.println(structure.shape() + " " + structure.getColumnNames());
             } else {
                  System.out.println();
             }
@@ -267,6 +1067,15 @@ public class JSave {
         return metadata;
     }
 
+    /**
+     * Returns the records of the file, in the order in which they are stored.
+     *
+     * @return the table of contents
+     */
+    public List<RecordEntry> getRecords() {
+        return records;
+    }
+
     /* MAIN */
 
     public static void main(String[] args) throws FileNotFoundException, IOException, Exception {
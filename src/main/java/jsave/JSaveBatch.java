@@ -0,0 +1,364 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads many SAVE files concurrently.
+ *
+ * The files are read by an executor, at most <code>parallelism</code> at the
+ * same time, and returned in the order in which their reading completes. A
+ * file is only read when less than <code>maxInFlight</code> files are read or
+ * waiting to be returned, so that the memory used is bounded whatever the
+ * number of files. The reader of a returned file belongs to the caller, which
+ * has to close it.
+ *
+ * The files are read by virtual threads when the JDK provides them, and by a
+ * pool of <code>parallelism</code> threads otherwise. A file that cannot be
+ * read is returned with its error, the other files are still read.
+ */
+public class JSaveBatch implements Iterator<JSaveBatch.Result>, Closeable {
+
+    /**
+     * A file of the batch, read or failed.
+     */
+    public static final class Result {
+
+        private final File file;
+        private final JSave reader;
+        private final Exception error;
+
+        Result(File file, JSave reader, Exception error) {
+            this.file = file;
+            this.reader = reader;
+            this.error = error;
+        }
+
+        /**
+         * Returns the file.
+         *
+         * @return the file
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the reader of the file, on which the variables are already
+         * read.
+         *
+         * @return the reader, null when the file could not be read
+         */
+        public JSave getReader() {
+            return reader;
+        }
+
+        /**
+         * Returns the error raised while reading the file.
+         *
+         * @return the error, null when the file was read
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return file + (error == null ? "" : ": " + error);
+        }
+    }
+
+    private final List<File> files;
+    private final Set<String> variables;
+    private final int parallelism;
+    private final int maxInFlight;
+
+    /**
+     * Limits the number of files read at the same time.
+     */
+    private final Semaphore reading;
+
+    /**
+     * Files read, in the order in which their reading completed.
+     */
+    private final LinkedBlockingQueue<Result> results = new LinkedBlockingQueue<>();
+
+    /**
+     * Guards the hand-over of the results once the batch is closed.
+     */
+    private final Object lock = new Object();
+
+    private ExecutorService executor;
+    private boolean ownExecutor;
+    private boolean memoryMapped;
+    private int submitted;
+    private int returned;
+    private boolean closed;
+
+    /**
+     * Creates a batch reading all the variables of the files.
+     *
+     * @param files the SAVE files
+     * @param parallelism the number of files read at the same time
+     */
+    public JSaveBatch(List<File> files, int parallelism) {
+        this(files, null, parallelism);
+    }
+
+    /**
+     * Creates a batch, at most twice as many files as read at the same time
+     * waiting to be returned.
+     *
+     * @param files the SAVE files
+     * @param variables the names of the variables to decode, null for all of
+     * them
+     * @param parallelism the number of files read at the same time
+     */
+    public JSaveBatch(List<File> files, Set<String> variables, int parallelism) {
+        this(files, variables, parallelism, 2 * parallelism);
+    }
+
+    /**
+     * Creates a batch.
+     *
+     * @param files the SAVE files
+     * @param variables the names of the variables to decode, null for all of
+     * them
+     * @param parallelism the number of files read at the same time
+     * @param maxInFlight the number of files read or waiting to be returned
+     */
+    public JSaveBatch(List<File> files, Set<String> variables, int parallelism, int maxInFlight) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+        if (maxInFlight < parallelism) {
+            throw new IllegalArgumentException("Invalid number of files in flight: " + maxInFlight);
+        }
+        this.files = files;
+        this.variables = variables;
+        this.parallelism = parallelism;
+        this.maxInFlight = maxInFlight;
+        this.reading = new Semaphore(parallelism);
+    }
+
+    /**
+     * Sets the executor reading the files. It is not shut down by the batch.
+     *
+     * @param executor the executor, null to use virtual threads or a pool
+     * created by the batch
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets whether the files are decoded from a memory-mapped view.
+     *
+     * @param memoryMapped true to map the files in memory
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return returned < files.size() && !closed;
+    }
+
+    /**
+     * Waits for the next file read.
+     *
+     * @return the file, with its reader or its error
+     */
+    @Override
+    public Result next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        submit();
+        Result result;
+        try {
+            result = results.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a file", ex);
+        }
+        returned++;
+        if (returned == files.size()) {
+            shutdown();
+        }
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * Submits the next files as long as the number of files in flight allows
+     * it.
+     */
+    private void submit() {
+        if (executor == null) {
+            executor = newExecutor(parallelism);
+            ownExecutor = true;
+        }
+        while (submitted < files.size() && submitted - returned < maxInFlight) {
+            executor.execute(new Loader(files.get(submitted++)));
+        }
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per file when the JDK
+     * provides them, or a pool of daemon threads otherwise.
+     *
+     * @param parallelism the number of threads of the pool
+     * @return the executor
+     */
+    private static ExecutorService newExecutor(int parallelism) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "jsave-batch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    private void shutdown() {
+        if (ownExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops the batch : the files not read yet are skipped and the readers
+     * of the files not returned yet are closed.
+     *
+     * @throws IOException when a reader cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+        }
+        if (executor != null) {
+            shutdown();
+        }
+        IOException error = null;
+        for (Result result = results.poll(); result != null; result = results.poll()) {
+            try {
+                closeReader(result.getReader());
+            } catch (IOException ex) {
+                error = ex;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static void closeReader(JSave reader) throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads a file and hands it over to the batch.
+     */
+    private final class Loader implements Runnable {
+
+        private final File file;
+
+        Loader(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            Result result;
+            try {
+                result = new Result(file, read(), null);
+            } catch (Exception ex) {
+                result = new Result(file, null, ex);
+            }
+            synchronized (lock) {
+                if (!closed) {
+                    results.add(result);
+                    return;
+                }
+            }
+            try {
+                closeReader(result.getReader());
+            } catch (IOException ex) {
+                // the batch is closed, nobody waits for this file
+            }
+        }
+
+        private JSave read() throws Exception {
+            reading.acquire();
+            try {
+                synchronized (lock) {
+                    if (closed) {
+                        return null;
+                    }
+                }
+                JSave reader = new JSave(file, memoryMapped);
+                try {
+                    if (variables == null) {
+                        reader.read();
+                    } else {
+                        reader.read(variables);
+                    }
+                } catch (Exception ex) {
+                    try {
+                        reader.close();
+                    } catch (IOException closing) {
+                        ex.addSuppressed(closing);
+                    }
+                    throw ex;
+                }
+                return reader;
+            } finally {
+                reading.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Storage of 64-bit integers (IDL LONG64 and ULONG64).
+ */
+public class LongData extends MatrixData {
+
+    private final long[] values;
+    private final boolean unsigned;
+
+    public LongData(int size, boolean unsigned) {
+        this(new long[size], unsigned);
+    }
+
+    /**
+     * Wraps an array without copying it.
+     *
+     * @param values the values
+     * @param unsigned true to read the values as unsigned integers
+     */
+    public LongData(long[] values, boolean unsigned) {
+        this.values = values;
+        this.unsigned = unsigned;
+    }
+
+    @Override
+    public long size() {
+        return this.values.length;
+    }
+
+    /**
+     * Returns a value widened to double. Values beyond 2^53 lose precision,
+     * use {@link #getLong(int)} to get the exact value.
+     */
+    @Override
+    public double get(long index) {
+        long value = this.values[(int) index];
+        if (this.unsigned && value < 0) {
+            return (double) (value >>> 1) * 2.0 + (value & 1);
+        }
+        return value;
+    }
+
+    @Override
+    public void set(long index, double value) {
+        this.values[(int) index] = (long) value;
+    }
+
+    /**
+     * Returns the exact value. For an unsigned view, the value must be read
+     * as unsigned, for instance with {@link Long#toUnsignedString(long)}.
+     *
+     * @param index the index of the value
+     * @return the value
+     */
+    public long getLong(long index) {
+        return this.values[(int) index];
+    }
+
+    public void setLong(long index, long value) {
+        this.values[(int) index] = value;
+    }
+
+    @Override
+    public boolean isUnsigned() {
+        return this.unsigned;
+    }
+
+    /**
+     * Returns a view of the same values with another signedness.
+     *
+     * @param unsignedView true to read the values as unsigned integers
+     * @return the view sharing the values
+     */
+    public LongData asUnsigned(boolean unsignedView) {
+        return new LongData(this.values, unsignedView);
+    }
+
+    @Override
+    public int getTypecode() {
+        return this.unsigned ? 15 : 14;
+    }
+
+    @Override
+    public long[] getArray() {
+        return this.values;
+    }
+
+    @Override
+    public MatrixData newInstance(long size) {
+        return isHeapSize(size) ? new LongData((int) size, this.unsigned) : OffHeapData.allocate(getTypecode(), size);
+    }
+
+    @Override
+    public void copyTo(long srcIndex, long srcStride, MatrixData target, long targetIndex, long targetStride, int count) {
+        if (!(target instanceof LongData) || srcStride == 1 && targetStride == 1) {
+            super.copyTo(srcIndex, srcStride, target, targetIndex, targetStride, count);
+            return;
+        }
+        long[] dst = ((LongData) target).values;
+        int s = (int) srcIndex;
+        int t = (int) targetIndex;
+        for (int i = 0; i < count; i++, s += srcStride, t += targetStride) {
+            dst[t] = this.values[s];
+        }
+    }
+
+    @Override
+    int elementSize() {
+        return 8;
+    }
+
+    @Override
+    void decode(ByteBuffer src, long index, long stride, int count) {
+        LongBuffer view = src.asLongBuffer();
+        if (stride == 1) {
+            view.get(this.values, (int) index, count);
+        } else {
+            for (int i = 0, j = (int) index; i < count; i++, j += (int) stride) {
+                this.values[j] = view.get(i);
+            }
+        }
+        src.position(src.position() + count * 8);
+    }
+}
@@ -0,0 +1,119 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link SaveInput} decoding the fields straight from a memory-mapped view of
+ * the file.
+ *
+ * A single mapping cannot exceed 2 GB, so the file is mapped through a window
+ * that is moved whenever a read falls outside of it. Primitives are decoded
+ * from the mapped buffer without any intermediate copy.
+ */
+public class MappedSaveInput extends BufferedSaveInput {
+
+    /**
+     * Default size of the mapped window.
+     */
+    public static final long DEFAULT_WINDOW_SIZE = 1L << 30;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long length;
+    private final long windowSize;
+
+    /**
+     * True when this input closes the file.
+     */
+    private final boolean owner;
+
+    public MappedSaveInput(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Maps the file through a window of the given size.
+     *
+     * @param file the SAVE file
+     * @param windowSize the maximum number of bytes mapped at once
+     * @throws IOException when the file cannot be mapped
+     */
+    public MappedSaveInput(File file, long windowSize) throws IOException {
+        this(new RandomAccessFile(file, "r"), windowSize, true);
+    }
+
+    private MappedSaveInput(RandomAccessFile raf, long windowSize, boolean owner) throws IOException {
+        super(ByteBuffer.allocate(0));
+        if (windowSize < 8 || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        }
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.length = this.channel.size();
+        this.windowSize = windowSize;
+        this.owner = owner;
+    }
+
+    @Override
+    protected void fill(long position, int length) throws IOException {
+        if (position >= this.length) {
+            throw new EOFException();
+        }
+        long size = Math.min(Math.max(this.windowSize, length), this.length - position);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        this.bufferStart = position;
+    }
+
+    @Override
+    public SaveInput duplicate() throws IOException {
+        MappedSaveInput copy = new MappedSaveInput(this.raf, this.windowSize, false);
+        // the mapped window is shared, only the cursor is copied
+        copy.buffer = this.buffer.duplicate();
+        copy.bufferStart = this.bufferStart;
+        return copy;
+    }
+
+    /**
+     * Returns the channel of the file, so that arrays can be mapped in place.
+     *
+     * @return the channel
+     */
+    FileChannel getChannel() {
+        return this.channel;
+    }
+
+    @Override
+    public long length() {
+        return this.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.owner) {
+            this.raf.close();
+        }
+    }
+}
@@ -19,6 +19,11 @@
  */
 package jsave;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * Creates a 3D Matrix object.
  * 
@@ -27,6 +32,40 @@ package jsave;
  */
 public class Matrix {
 
+    /**
+     * Order of the values in the storage of a matrix.
+     */
+    public enum Layout {
+        /**
+         * z varies the fastest, then y, then x : a vector along z is
+         * contiguous.
+         */
+        CUBE,
+        /**
+         * Order of the SAVE file : y varies the fastest, then x, then z. A
+         * plane XY is contiguous and the values of the file are used as they
+         * are.
+         */
+        FILE
+    }
+
+    /**
+     * Number of values from which a copy to another layout is split between
+     * several threads.
+     */
+    private static final long PARALLEL_COPY_THRESHOLD = 1 << 20;
+
+    /**
+     * Pool of the threads sharing the work on large matrices. Its threads are
+     * daemons, started on demand.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    /**
+     * Side of the tiles of a transposition, in number of values.
+     */
+    private static final int TILE_SIZE = 64;
+
     /**
      * <pre>
      * y or height
@@ -41,15 +80,39 @@ public class Matrix {
     private final int width, height, deep;
 
     /**
-     * Stores the 3D matrix in one dimension array.
+     * Stores the 3D matrix in one dimension array of the type read from the
+     * file.
+     */
+    private final MatrixData data;
+
+    /**
+     * Index in the storage of the value (0,0,0) and distances in the storage
+     * between two values along x, y and z. A sub-matrix is a view sharing the
+     * storage of its parent with another offset.
+     */
+    private final long offset, strideX, strideY, strideZ;
+
+    /**
+     * Order of the values in the storage.
      */
-    private final double[] data;
+    private final Layout layout;
+
+    /**
+     * Statistics of each deep, computed on the first request.
+     */
+    private volatile Statistics[] statistics;
 
     /**
      * Stores the statistics in one dimension array. For each deep, [min,max]
      * are stored.
      */
-    private final double[] stats;
+    private volatile double[] stats;
+
+    /**
+     * Number of values from which the statistics of the planes are computed
+     * by several threads.
+     */
+    private static final long PARALLEL_STATS_THRESHOLD = 1 << 18;
 
     /**
      * Constructs a 3D Matrix.
@@ -59,128 +122,351 @@ public class Matrix {
      * @param d the number of pixels along z axis
      */
     public Matrix(int w, int h, int d) {
+        this(w, h, d, MatrixData.create(5, (long) w * h * d));
+    }
+
+    /**
+     * Constructs a 3D Matrix on a typed storage.
+     *
+     * @param w the number of pixels along x axis
+     * @param h the number of pixels along y axis
+     * @param d the number of pixels along z axis
+     * @param data the storage of the w * h * d values
+     * @throws IllegalArgumentException when the size of the storage does not
+     * match the dimensions
+     */
+    public Matrix(int w, int h, int d, MatrixData data) {
+        this(w, h, d, data, Layout.CUBE);
+    }
+
+    /**
+     * Constructs a 3D Matrix on a typed storage holding the values in the
+     * given order.
+     *
+     * @param w the number of pixels along x axis
+     * @param h the number of pixels along y axis
+     * @param d the number of pixels along z axis
+     * @param data the storage of the w * h * d values
+     * @param layout the order of the values in the storage
+     * @throws IllegalArgumentException when the size of the storage does not
+     * match the dimensions
+     */
+    public Matrix(int w, int h, int d, MatrixData data, Layout layout) {
+        if (data.size() != (long) w * h * d) {
+            throw new IllegalArgumentException("The storage holds " + data.size() + " values instead of " + (long) w * h * d);
+        }
         this.width = w;
         this.height = h;
         this.deep = d;
-        this.data = new double[w * h * d];
-        this.stats = computeStats();
+        this.data = data;
+        this.offset = 0;
+        this.layout = layout;
+        long[] strides = strides(w, h, d, layout);
+        this.strideX = strides[0];
+        this.strideY = strides[1];
+        this.strideZ = strides[2];
     }
 
     /**
-     * Computes the statistics (min,max) for each deep.
+     * Returns the strides of the values stored without gap in a layout.
      *
-     * @return the one dimension matrix that contains (min,max) for each deep
+     * @param w the number of pixels along x axis
+     * @param h the number of pixels along y axis
+     * @param d the number of pixels along z axis
+     * @param layout the order of the values
+     * @return the strides along x, y and z
      */
-    private double[] computeStats() {
-        double[] statistics = new double[2 * this.deep];
-        for (int i = 0; i < this.deep; i++) {
-            statistics[2 * i] = Double.POSITIVE_INFINITY; // min
-            statistics[2 * i + 1] = Double.NEGATIVE_INFINITY; //max
+    private static long[] strides(int w, int h, int d, Layout layout) {
+        if (layout == Layout.FILE) {
+            return new long[]{h, 1, (long) w * h};
+        }
+        return new long[]{(long) h * d, d, 1};
+    }
+
+    /**
+     * Constructs a view on the storage of another matrix.
+     *
+     * @param w the number of pixels along x axis
+     * @param h the number of pixels along y axis
+     * @param d the number of pixels along z axis
+     * @param data the storage
+     * @param layout the order of the values in the storage
+     * @param offset the index in the storage of the value (0,0,0)
+     * @param strideX the distance in the storage between two values along x
+     * @param strideY the distance in the storage between two values along y
+     * @param strideZ the distance in the storage between two values along z
+     */
+    private Matrix(int w, int h, int d, MatrixData data, Layout layout, long offset, long strideX, long strideY, long strideZ) {
+        this.width = w;
+        this.height = h;
+        this.deep = d;
+        this.data = data;
+        this.layout = layout;
+        this.offset = offset;
+        this.strideX = strideX;
+        this.strideY = strideY;
+        this.strideZ = strideZ;
+    }
+
+    /**
+     * Computes the statistics of the planes from z = from to z = to - 1.
+     *
+     * @param result the array receiving the statistics of each deep
+     * @param from the first deep
+     * @param to the last deep, excluded
+     */
+    private void computeStats(Statistics[] result, int from, int to) {
+        for (int z = from; z < to; z++) {
+            result[z] = Statistics.of(this, z);
+        }
+    }
+
+    /**
+     * Computes the statistics of a range of planes, split between the
+     * threads of a fork/join pool.
+     */
+    private static final class StatsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Matrix matrix;
+        private final Statistics[] result;
+        private final int from;
+        private final int to;
+
+        StatsTask(Matrix matrix, Statistics[] result, int from, int to) {
+            this.matrix = matrix;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                this.matrix.computeStats(this.result, this.from, this.to);
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new StatsTask(this.matrix, this.result, this.from, middle),
+                        new StatsTask(this.matrix, this.result, middle, this.to));
+            }
         }
-        return statistics;
+    }
+
+    /**
+     * Returns a view on a box of the matrix, sharing the storage.
+     *
+     * @param x0 the first x
+     * @param nx the number of values along x
+     * @param y0 the first y
+     * @param ny the number of values along y
+     * @param z0 the first z
+     * @param nz the number of values along z
+     * @return the view
+     */
+    private Matrix view(int x0, int nx, int y0, int ny, int z0, int nz) {
+        return new Matrix(nx, ny, nz, this.data, this.layout, index(x0, y0, z0), this.strideX, this.strideY, this.strideZ);
     }
 
     /**
      * Extracts a sub-matrix from the matrix.
      *
      * The syntax to extract a range if the following:
-     * <i>minCoordinate:maxCoordinate</i>
+     * <i>minCoordinate:maxCoordinate</i>, optionally followed by
+     * <i>:step</i>, or <i>*</i> for the whole axis.
      *
      * @param x the range of x to extract or an integer
      * @param y the range of y to extract or an integer
      * @param z the range of z to extract or an integer
-     * @return a new subMatrix
+     * @return a view sharing the values of the matrix
      * @throws IllegalArgumentException Wrong input parameters
+     * @see #copy() to detach the sub-matrix from the matrix
+     * @see #getSubMatrix(Range, Range, Range)
      */
-    public Matrix getSubMatrix(final String x, final String y, final String z) {       
-        int[] xMinMax = computeMinMax(x);       
-        int[] yMinMax = computeMinMax(y);
-        int[] zMinMax = computeMinMax(z);
-        if(xMinMax[0] < 0 || yMinMax[0] < 0 || zMinMax[0] < 0
-           || xMinMax[1] >= this.width || yMinMax[1] >= this.height 
-           || zMinMax[1] >= this.deep) {
-           throw new IllegalArgumentException("Wrong input parameters when defining the submaxtrix");
-        }
-        int nbXElts = xMinMax[1] - xMinMax[0] + 1;
-        int nbYElts = yMinMax[1] - yMinMax[0] + 1;
-        int nbZElts = zMinMax[1] - zMinMax[0] + 1;        
-        Matrix subMatrix = new Matrix(nbXElts, nbYElts, nbZElts);
-        for (int iterZ = 0; iterZ < nbZElts; iterZ++) {
-            for (int iterY = 0; iterY < nbYElts; iterY++) {
+    public Matrix getSubMatrix(final String x, final String y, final String z) {
+        return getSubMatrix(Range.parse(x), Range.parse(y), Range.parse(z));
+    }
+
+    /**
+     * Extracts a sub-matrix from the matrix.
+     *
+     * When the three ranges are regular, the sub-matrix is a view sharing the
+     * values of the matrix. Otherwise the selected values are copied in a new
+     * matrix of the same layout, by runs along the fastest axis of the layout
+     * (z for CUBE, y for FILE), which are copied at once when they are
+     * contiguous.
+     *
+     * @param x the coordinates to extract along x
+     * @param y the coordinates to extract along y
+     * @param z the coordinates to extract along z
+     * @return the sub-matrix
+     * @throws IllegalArgumentException when a coordinate is outside of the
+     * matrix
+     */
+    public Matrix getSubMatrix(final Range x, final Range y, final Range z) {
+        Range rx = x.resolve(this.width);
+        Range ry = y.resolve(this.height);
+        Range rz = z.resolve(this.deep);
+        int nbXElts = rx.size();
+        int nbYElts = ry.size();
+        int nbZElts = rz.size();
+        if (rx.isRegular() && ry.isRegular() && rz.isRegular()) {
+            return new Matrix(nbXElts, nbYElts, nbZElts, this.data, this.layout, index(rx.getFirst(), ry.getFirst(), rz.getFirst()),
+                    this.strideX * rx.getStep(), this.strideY * ry.getStep(), this.strideZ * rz.getStep());
+        }
+        Matrix subMatrix = new Matrix(nbXElts, nbYElts, nbZElts, this.data.newInstance((long) nbXElts * nbYElts * nbZElts), this.layout);
+        if (this.layout == Layout.FILE) {
+            for (int iterZ = 0; iterZ < nbZElts; iterZ++) {
                 for (int iterX = 0; iterX < nbXElts; iterX++) {
-                    subMatrix.setCubeValue(iterX, iterY, iterZ, this.getCubeValue(iterX+xMinMax[0], iterY+yMinMax[0], iterZ+zMinMax[0]));
+                    copyRun(index(rx.get(iterX), 0, rz.get(iterZ)), this.strideY, ry,
+                            subMatrix, subMatrix.index(iterX, 0, iterZ), subMatrix.strideY);
+                }
+            }
+        } else {
+            for (int iterX = 0; iterX < nbXElts; iterX++) {
+                for (int iterY = 0; iterY < nbYElts; iterY++) {
+                    copyRun(index(rx.get(iterX), ry.get(iterY), 0), this.strideZ, rz,
+                            subMatrix, subMatrix.index(iterX, iterY, 0), subMatrix.strideZ);
                 }
             }
         }
-
         return subMatrix;
     }
-    
-    /**
-     * Extracts the min/max value from an input.
-     * If the input is a range such as <i>min:max</i> then the min value is min
-     * and the max value is max.
-     * If the input is an integer, then the min value = max value = integer
-     * @param input the input to parse
-     * @return an integer array [min,max]
-     */
-    private int[] computeMinMax(final String input) {
-        int min,max;
-        if (isRange(input)) {
-            String[] inputMinMax = input.split(":");
-            min = Integer.parseInt(inputMinMax[0]);
-            max = Integer.parseInt(inputMinMax[1]);
-        } else if (isInteger(input)) {
-            min = Integer.parseInt(input);
-            max = Integer.parseInt(input);
+
+    /**
+     * Copies the values selected by a range along one axis.
+     *
+     * @param srcIndex the index in the storage of the coordinate 0 of the
+     * axis
+     * @param srcStride the stride of the axis in the storage
+     * @param range the coordinates to copy
+     * @param target the matrix receiving the values
+     * @param targetIndex the index in the target of the first value
+     * @param targetStride the stride of the axis in the target
+     */
+    private void copyRun(long srcIndex, long srcStride, Range range, Matrix target, long targetIndex, long targetStride) {
+        if (range.isRegular()) {
+            this.data.copyTo(srcIndex + range.getFirst() * srcStride, srcStride * range.getStep(),
+                    target.data, targetIndex, targetStride, range.size());
         } else {
-            throw new IllegalArgumentException("Wrong input parameters when defining the submaxtrix");
+            for (int i = 0; i < range.size(); i++) {
+                this.data.copyTo(srcIndex + range.get(i) * srcStride, target.data, targetIndex + i * targetStride, 1);
+            }
         }
-        return new int[]{min,max};
     }
 
     /**
-     * Checks if the input is a range.
-     * @param input the input to parse
-     * @return True when the input is a range otherwise False
+     * Retrieves a value of the data cube
+     *
+     * @param x pixel number along x axis (starts with 0)
+     * @param y pixel number along y axis (starts with 0)
+     * @param z pixel number along z axis (starts with 0)
+     * @return the value of (x,y,z)
      */
-    private boolean isRange(final String input) {
-        return input.contains(":");
+    public double getCubeValue(int x, int y, int z) {
+        return this.data.get(index(x, y, z));
     }
 
     /**
-     * Checks if the input is an integer.
-     * @param s the input to parse
-     * @return True when the input is an integer otherwise False
+     * Returns the index of (x,y,z) in the storage.
+     *
+     * @param x pixel number along x axis (starts with 0)
+     * @param y pixel number along y axis (starts with 0)
+     * @param z pixel number along z axis (starts with 0)
+     * @return the index in the storage
      */
-    private boolean isInteger(final String s) {
-        boolean isValidInteger = false;
-        try {
-            Integer.parseInt(s);
-            isValidInteger = true;
-        } catch (NumberFormatException ex) {
-            // s is not an integer
-        }
+    long index(int x, int y, int z) {
+        return this.offset + x * this.strideX + y * this.strideY + z * this.strideZ;
+    }
+
+    /**
+     * Copies the values in a new matrix of the same type and layout, which
+     * does not share the storage of this matrix.
+     *
+     * @return the copy
+     */
+    public Matrix copy() {
+        return copy(this.layout);
+    }
 
-        return isValidInteger;
+    /**
+     * Copies the values in a new matrix of the same type, which does not
+     * share the storage of this matrix, with the values stored in the given
+     * order.
+     *
+     * Changing the order transposes the values tile by tile, so that both the
+     * reads and the writes stay in the cache. Large matrices are transposed
+     * by several threads.
+     *
+     * @param target the order of the values in the copy
+     * @return the copy
+     */
+    public Matrix copy(Layout target) {
+        final Matrix copy = new Matrix(this.width, this.height, this.deep, this.data.newInstance(length()), target);
+        if (length() < PARALLEL_COPY_THRESHOLD || this.width == 1) {
+            copyTo(copy, 0, this.width);
+        } else {
+            POOL.invoke(new CopyTask(this, copy, 0, this.width));
+        }
+        return copy;
     }
 
     /**
-     * Retrieves a value of the data cube
+     * Copies the values of the planes YZ from x = from to x = to - 1.
      *
-     * @param x pixel number along x axis (starts with 0)
-     * @param y pixel number along y axis (starts with 0)
-     * @param z pixel number along z axis (starts with 0)
-     * @return the value of (x,y,z)
+     * @param copy the matrix receiving the values
+     * @param from the first x
+     * @param to the last x, excluded
      */
-    public double getCubeValue(int x, int y, int z) {
-        return this.data[x * this.height * this.deep + y * this.deep + z];
+    private void copyTo(Matrix copy, int from, int to) {
+        for (int x = from; x < to; x++) {
+            for (int y0 = 0; y0 < this.height; y0 += TILE_SIZE) {
+                for (int z0 = 0; z0 < this.deep; z0 += TILE_SIZE) {
+                    int nz = Math.min(TILE_SIZE, this.deep - z0);
+                    for (int y = y0; y < Math.min(y0 + TILE_SIZE, this.height); y++) {
+                        this.data.copyTo(index(x, y, z0), this.strideZ, copy.data, copy.index(x, y, z0), copy.strideZ, nz);
+                    }
+                }
+            }
+        }
     }
 
     /**
-     * Sets the value in a cube and computes statistics. While the value is set
-     * to the cube, the statistics is computes. The main goal of the statistics
-     * is to compute the min/max for each deep.
+     * Copies a range of planes YZ, split between the threads of a fork/join
+     * pool.
+     */
+    private static final class CopyTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Matrix source;
+        private final Matrix copy;
+        private final int from;
+        private final int to;
+
+        CopyTask(Matrix source, Matrix copy, int from, int to) {
+            this.source = source;
+            this.copy = copy;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            long planeSize = (long) this.source.height * this.source.deep;
+            if (this.to - this.from == 1 || (this.to - this.from) * planeSize < PARALLEL_COPY_THRESHOLD / 4) {
+                this.source.copyTo(this.copy, this.from, this.to);
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new CopyTask(this.source, this.copy, this.from, middle),
+                        new CopyTask(this.source, this.copy, middle, this.to));
+            }
+        }
+    }
+
+    /**
+     * Sets the value in a cube. The statistics are computed again on the next
+     * request.
      *
      * @param x pixel number along x axis (starts with 0)
      * @param y pixel number along y axis (starts with 0)
@@ -188,13 +474,9 @@ public class Matrix {
      * @param value the value to set in (x,y,z)
      */
     void setCubeValue(int x, int y, int z, double value) {
-        this.data[x * this.height * this.deep + y * this.deep + z] = value;
-        if (this.stats[2 * z] > value) {
-            this.stats[2 * z] = value;
-        }
-        if (this.stats[2 * z + 1] < value) {
-            this.stats[2 * z + 1] = value;
-        }
+        this.data.set(index(x, y, z), value);
+        this.statistics = null;
+        this.stats = null;
     }
 
     /**
@@ -204,7 +486,8 @@ public class Matrix {
      * @return the statistics (min/max) for the deep d
      */
     public double[] getStats(int d) {
-        return new double[]{this.stats[2 * d], this.stats[2 * d + 1]};
+        Statistics plane = getStatistics()[d];
+        return new double[]{plane.getMin(), plane.getMax()};
     }
 
     /**
@@ -213,7 +496,50 @@ public class Matrix {
      * @return one dimension array
      */
     public double[] getStats() {
-        return this.stats;
+        double[] minMax = this.stats;
+        if (minMax == null) {
+            Statistics[] planes = getStatistics();
+            minMax = new double[2 * this.deep];
+            for (int z = 0; z < this.deep; z++) {
+                minMax[2 * z] = planes[z].getMin();
+                minMax[2 * z + 1] = planes[z].getMax();
+            }
+            this.stats = minMax;
+        }
+        return minMax;
+    }
+
+    /**
+     * Returns the statistics (min, max, mean, variance, sum, number of NaN)
+     * of the deep d.
+     *
+     * @param d the deep for which the statistics are retrieved
+     * @return the statistics of the plane XY at the deep d
+     */
+    public Statistics getStatistics(int d) {
+        return getStatistics()[d];
+    }
+
+    /**
+     * Returns the statistics of each deep.
+     *
+     * The statistics are computed on the first request only, the planes of a
+     * large matrix being processed by several threads.
+     *
+     * @return the statistics, indexed by deep
+     */
+    public Statistics[] getStatistics() {
+        Statistics[] planes = this.statistics;
+        if (planes == null) {
+            planes = new Statistics[this.deep];
+            if (this.deep > 1 && length() >= PARALLEL_STATS_THRESHOLD) {
+                POOL.invoke(new StatsTask(this, planes, 0, this.deep));
+            } else {
+                computeStats(planes, 0, this.deep);
+            }
+            this.statistics = planes;
+        }
+        return planes;
     }
 
     /**
@@ -296,6 +622,136 @@ public class Matrix {
         return slice;
     }
 
+    /**
+     * Gets the vectors along z of several pixels in one block.
+     *
+     * @param x the x coordinates of the pixels
+     * @param y the y coordinates of the pixels
+     * @param spectra the block receiving the vector of the pixel i from
+     * spectra[i * getDeep()]
+     * @see #getSpectra(int[], int[], double[], boolean)
+     */
+    public void getSpectra(int[] x, int[] y, double[] spectra) {
+        getSpectra(x, y, spectra, false);
+    }
+
+    /**
+     * Gets the vectors along z of several pixels in one block.
+     *
+     * The pixels are visited in the order of the storage rather than in the
+     * order of the coordinates, by tiles of planes, so that the values are
+     * read in a cache-friendly order whatever the layout.
+     *
+     * @param x the x coordinates of the pixels
+     * @param y the y coordinates of the pixels
+     * @param spectra the block receiving the vector of the pixel i from
+     * spectra[i * getDeep()]
+     * @param parallel true to split the pixels between the threads of the
+     * fork/join pool of the class
+     * @throws IllegalArgumentException when the arrays do not have matching
+     * lengths
+     * @throws IndexOutOfBoundsException when a pixel is outside of the matrix
+     */
+    public void getSpectra(final int[] x, final int[] y, double[] spectra, boolean parallel) {
+        checkSpectra(x, y, spectra, this.width, this.height, this.deep);
+        Integer[] order = new Integer[x.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(index(x[a], y[a], 0), index(x[b], y[b], 0));
+            }
+        });
+        SpectraTask task = new SpectraTask(this, x, y, order, new DoubleData(spectra), 0, order.length);
+        if (parallel && length() >= PARALLEL_COPY_THRESHOLD && order.length > 1) {
+            POOL.invoke(task);
+        } else {
+            task.copy();
+        }
+    }
+
+    /**
+     * Checks the arguments of a batch of spectra.
+     *
+     * @param x the x coordinates of the pixels
+     * @param y the y coordinates of the pixels
+     * @param spectra the block receiving the vectors
+     * @param w the number of pixels along x axis
+     * @param h the number of pixels along y axis
+     * @param d the number of pixels along z axis
+     * @throws IllegalArgumentException when the arrays do not have matching
+     * lengths
+     * @throws IndexOutOfBoundsException when a pixel is outside of the matrix
+     */
+    static void checkSpectra(int[] x, int[] y, double[] spectra, int w, int h, int d) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException(x.length + " x coordinates for " + y.length + " y coordinates");
+        }
+        if (spectra.length < (long) x.length * d) {
+            throw new IllegalArgumentException("The block holds " + spectra.length + " values instead of " + (long) x.length * d);
+        }
+        for (int i = 0; i < x.length; i++) {
+            if (x[i] < 0 || y[i] < 0 || x[i] >= w || y[i] >= h) {
+                throw new IndexOutOfBoundsException("(" + x[i] + "," + y[i] + ") is outside of " + w + " x " + h + " x " + d);
+            }
+        }
+    }
+
+    /**
+     * Copies the vectors along z of a range of pixels, split between the
+     * threads of a fork/join pool.
+     */
+    private static final class SpectraTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Matrix source;
+        private final int[] x;
+        private final int[] y;
+        private final Integer[] order;
+        private final MatrixData spectra;
+        private final int from;
+        private final int to;
+
+        SpectraTask(Matrix source, int[] x, int[] y, Integer[] order, MatrixData spectra, int from, int to) {
+            this.source = source;
+            this.x = x;
+            this.y = y;
+            this.order = order;
+            this.spectra = spectra;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1 || (long) (this.to - this.from) * this.source.deep < PARALLEL_COPY_THRESHOLD / 4) {
+                copy();
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new SpectraTask(this.source, this.x, this.y, this.order, this.spectra, this.from, middle),
+                        new SpectraTask(this.source, this.x, this.y, this.order, this.spectra, middle, this.to));
+            }
+        }
+
+        /**
+         * Copies the vectors of the pixels order[from] to order[to - 1], in
+         * the order of the storage.
+         */
+        void copy() {
+            Matrix m = this.source;
+            for (int z0 = 0; z0 < m.deep; z0 += TILE_SIZE) {
+                int nz = Math.min(TILE_SIZE, m.deep - z0);
+                for (int k = this.from; k < this.to; k++) {
+                    int i = this.order[k];
+                    m.data.copyTo(m.index(this.x[i], this.y[i], z0), m.strideZ, this.spectra, (long) i * m.deep + z0, 1, nz);
+                }
+            }
+        }
+    }
+
     /**
      * Get a matrix along x and z axis for a given y.
      * <pre>
@@ -377,6 +833,95 @@ public class Matrix {
         return slice;
     }
 
+    /**
+     * Returns a view on the vector along x axis crossing the coordinate (y,z).
+     *
+     * @param y the y coordinate (starts with 0)
+     * @param z the z coordinate (starts with 0)
+     * @return a width x 1 x 1 matrix sharing the values of the matrix
+     * @see #getVectorAlongX(int, int)
+     */
+    public Matrix getVectorAlongXView(int y, int z) {
+        checkIndex(0, y, z);
+        return view(0, this.width, y, 1, z, 1);
+    }
+
+    /**
+     * Returns a view on the vector along y axis crossing the coordinate (x,z).
+     *
+     * @param x the x coordinate (starts with 0)
+     * @param z the z coordinate (starts with 0)
+     * @return a 1 x height x 1 matrix sharing the values of the matrix
+     * @see #getVectorAlongY(int, int)
+     */
+    public Matrix getVectorAlongYView(int x, int z) {
+        checkIndex(x, 0, z);
+        return view(x, 1, 0, this.height, z, 1);
+    }
+
+    /**
+     * Returns a view on the vector along z axis crossing the coordinate (x,y).
+     *
+     * @param x the x coordinate (starts with 0)
+     * @param y the y coordinate (starts with 0)
+     * @return a 1 x 1 x deep matrix sharing the values of the matrix
+     * @see #getVectorAlongZ(int, int)
+     */
+    public Matrix getVectorAlongZView(int x, int y) {
+        checkIndex(x, y, 0);
+        return view(x, 1, y, 1, 0, this.deep);
+    }
+
+    /**
+     * Returns a view on the plane XY at the deep z.
+     *
+     * @param z the deep (starts with 0)
+     * @return a width x height x 1 matrix sharing the values of the matrix
+     * @see #getPlane(int)
+     */
+    public Matrix getPlaneView(int z) {
+        checkIndex(0, 0, z);
+        return view(0, this.width, 0, this.height, z, 1);
+    }
+
+    /**
+     * Returns a view on the plane XZ for a given y.
+     *
+     * @param y the y coordinate (starts with 0)
+     * @return a width x 1 x deep matrix sharing the values of the matrix
+     * @see #getPlaneXZ(int)
+     */
+    public Matrix getPlaneXZView(int y) {
+        checkIndex(0, y, 0);
+        return view(0, this.width, y, 1, 0, this.deep);
+    }
+
+    /**
+     * Returns a view on the plane YZ for a given x.
+     *
+     * @param x the x coordinate (starts with 0)
+     * @return a 1 x height x deep matrix sharing the values of the matrix
+     * @see #getPlaneYZ(int)
+     */
+    public Matrix getPlaneYZView(int x) {
+        checkIndex(x, 0, 0);
+        return view(x, 1, 0, this.height, 0, this.deep);
+    }
+
+    /**
+     * Checks that a coordinate is inside the matrix.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param z the z coordinate
+     * @throws IndexOutOfBoundsException when the coordinate is outside
+     */
+    private void checkIndex(int x, int y, int z) {
+        if (x < 0 || y < 0 || z < 0 || x >= this.width || y >= this.height || z >= this.deep) {
+            throw new IndexOutOfBoundsException("(" + x + "," + y + "," + z + ") is outside of " + shape());
+        }
+    }
+
     /**
      * Returns the dimension of the matrix.
      *
@@ -390,9 +935,25 @@ public class Matrix {
      * Return the number of elements in the matrix
      *
      * @return the number of values in the matrix
+     * @throws ArithmeticException when the matrix holds more than 2^31 values,
+     * use {@link #length()} instead
      */
     public int size() {
-        return this.width * this.height * this.deep;
+        long length = length();
+        if (length > Integer.MAX_VALUE) {
+            throw new ArithmeticException("The matrix holds " + length + " values, use length()");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Return the number of elements in the matrix, which may exceed 2^31 for
+     * an off-heap matrix.
+     *
+     * @return the number of values in the matrix
+     */
+    public long length() {
+        return (long) this.width * this.height * this.deep;
     }
 
     /**
@@ -434,10 +995,86 @@ public class Matrix {
     /**
      * Returns the matrix as one dimension array.
      *
+     * The values are given with z varying the fastest, then y, then x. The
+     * array is the storage itself for a double matrix in the CUBE layout which
+     * is not a view, otherwise a copy widened to double. Use {@link #getMatrixData()} to access the values in
+     * their own type.
+     *
      * @return the matrix
+     * @throws ArithmeticException when the matrix holds more than 2^31 values
      */
     public double[] getData() {
-        return data;
+        if (this.data instanceof DoubleData && this.layout == Layout.CUBE && isContiguous()) {
+            return ((DoubleData) this.data).getArray();
+        }
+        double[] values = new double[size()];
+        int i = 0;
+        for (int x = 0; x < this.width; x++) {
+            for (int y = 0; y < this.height; y++) {
+                for (int z = 0; z < this.deep; z++) {
+                    values[i++] = getCubeValue(x, y, z);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Tells whether the matrix covers its whole storage, in the order of its
+     * layout.
+     *
+     * @return false for a view on a part of another matrix
+     */
+    public boolean isContiguous() {
+        return this.offset == 0 && this.data.size() == length()
+                && Arrays.equals(getStrides(), strides(this.width, this.height, this.deep, this.layout));
+    }
+
+    /**
+     * Returns the order of the values in the storage.
+     *
+     * @return the layout
+     */
+    public Layout getLayout() {
+        return this.layout;
+    }
+
+    /**
+     * Returns the index in the storage of the value (0,0,0).
+     *
+     * @return the offset
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Returns the distances in the storage between two values along x, y and
+     * z.
+     *
+     * @return the strides
+     */
+    public long[] getStrides() {
+        return new long[]{this.strideX, this.strideY, this.strideZ};
+    }
+
+    /**
+     * Returns the typed storage of the matrix. The storage of a view is the
+     * one of its parent, see {@link #getOffset()} and {@link #getStrides()}.
+     *
+     * @return the storage
+     */
+    public MatrixData getMatrixData() {
+        return this.data;
+    }
+
+    /**
+     * Returns the IDL type code of the values.
+     *
+     * @return the IDL type code
+     */
+    public int getTypecode() {
+        return this.data.getTypecode();
     }
 
     /**
@@ -0,0 +1,205 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Typed storage of the values of a {@link Matrix}.
+ *
+ * Each variant keeps the values in an array of the primitive type used in
+ * the SAVE file, so that a float cube is not widened to double and an
+ * integer cube keeps its exact values. The values can always be read and
+ * written as double through {@link #get(long)} and {@link #set(long, double)}.
+ * Storages too large for a Java array are kept off-heap in an
+ * {@link OffHeapData}.
+ */
+public abstract class MatrixData {
+
+    /**
+     * Largest number of values stored in a Java array.
+     */
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Creates the storage matching an IDL type code.
+     *
+     * @param typecode the IDL type code
+     * @param size the number of values
+     * @return the storage
+     * @throws UnsupportedOperationException when the type has no numeric
+     * storage
+     */
+    public static MatrixData create(int typecode, long size) {
+        if (!isHeapSize(size)) {
+            return OffHeapData.allocate(typecode, size);
+        }
+        switch (typecode) {
+            case 1:
+                return new ByteData((int) size, true);
+            case 2:
+                return new ShortData((int) size, false);
+            case 3:
+                return new IntData((int) size, false);
+            case 4:
+                return new FloatData((int) size);
+            case 5:
+                return new DoubleData((int) size);
+            case 12:
+                return new ShortData((int) size, true);
+            case 13:
+                return new IntData((int) size, true);
+            case 14:
+                return new LongData((int) size, false);
+            case 15:
+                return new LongData((int) size, true);
+            default:
+                throw new UnsupportedOperationException("Arrays of IDL type " + typecode + " are not supported");
+        }
+    }
+
+    /**
+     * Tells whether a number of values fits in a Java array.
+     *
+     * @param size the number of values
+     * @return true when the values can be stored on the heap
+     */
+    static boolean isHeapSize(long size) {
+        return size <= MAX_ARRAY_SIZE;
+    }
+
+    /**
+     * Returns the number of values.
+     *
+     * @return the number of values
+     */
+    public abstract long size();
+
+    /**
+     * Returns a value widened to double.
+     *
+     * @param index the index of the value
+     * @return the value
+     */
+    public abstract double get(long index);
+
+    /**
+     * Sets a value, narrowed to the type of the storage.
+     *
+     * @param index the index of the value
+     * @param value the value
+     */
+    public abstract void set(long index, double value);
+
+    /**
+     * Returns the IDL type code of the values.
+     *
+     * @return the IDL type code
+     */
+    public abstract int getTypecode();
+
+    /**
+     * Returns the array holding the values.
+     *
+     * @return the primitive array, or null when the values are stored
+     * off-heap
+     */
+    public abstract Object getArray();
+
+    /**
+     * Tells whether the values are read as unsigned integers.
+     *
+     * @return true for an unsigned view
+     */
+    public boolean isUnsigned() {
+        return false;
+    }
+
+    /**
+     * Creates an empty storage of the same type.
+     *
+     * @param size the number of values
+     * @return the new storage
+     */
+    public abstract MatrixData newInstance(long size);
+
+    /**
+     * Copies values into another storage. Between heap storages of the same
+     * type the values are copied as they are, otherwise they are converted
+     * through double.
+     *
+     * @param srcIndex the index of the first value to copy
+     * @param target the storage receiving the values
+     * @param targetIndex the index of the first value in the target
+     * @param length the number of values to copy
+     */
+    public void copyTo(long srcIndex, MatrixData target, long targetIndex, long length) {
+        Object src = getArray();
+        Object dst = target.getArray();
+        if (src != null && dst != null && src.getClass() == dst.getClass()) {
+            System.arraycopy(src, (int) srcIndex, dst, (int) targetIndex, (int) length);
+        } else {
+            for (long i = 0; i < length; i++) {
+                target.set(targetIndex + i, get(srcIndex + i));
+            }
+        }
+    }
+
+    /**
+     * Copies values into another storage, reading and writing them with
+     * strides. Between storages of different kinds, the values are converted
+     * through double.
+     *
+     * @param srcIndex the index of the first value to copy
+     * @param srcStride the distance between two values read
+     * @param target the storage receiving the values
+     * @param targetIndex the index of the first value in the target
+     * @param targetStride the distance between two values written
+     * @param count the number of values to copy
+     */
+    public void copyTo(long srcIndex, long srcStride, MatrixData target, long targetIndex, long targetStride, int count) {
+        if (srcStride == 1 && targetStride == 1) {
+            copyTo(srcIndex, target, targetIndex, count);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            target.set(targetIndex + i * targetStride, get(srcIndex + i * srcStride));
+        }
+    }
+
+    /**
+     * Returns the number of bytes of a value in a SAVE array.
+     *
+     * @return the size of a value in the file
+     */
+    abstract int elementSize();
+
+    /**
+     * Decodes values of a SAVE array from a big-endian buffer.
+     *
+     * The values are copied in one pass from the buffer to the storage, the
+     * buffer is positioned after the last value read.
+     *
+     * @param src the buffer positioned on the first value
+     * @param index the index where the first value is stored
+     * @param stride the distance in the storage between two values
+     * @param count the number of values
+     */
+    abstract void decode(ByteBuffer src, long index, long stride, int count);
+}
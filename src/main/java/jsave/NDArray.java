@@ -0,0 +1,293 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.util.Arrays;
+
+/**
+ * Creates a N-dimensional array object.
+ *
+ * The array is a strided view on a {@link MatrixData} : the value at
+ * (i0, i1, ...) is stored at offset + i0 * strides[0] + i1 * strides[1] + ...
+ * The dimensions are given in the order of IDL, so that the first one
+ * varies the fastest in the file, as in <i>arr[i0, i1, ...]</i>. Reshaping or
+ * squeezing an array returns a view sharing the same storage.
+ */
+public class NDArray {
+
+    /**
+     * Largest number of dimensions of an IDL array.
+     */
+    public static final int MAX_DIMS = 8;
+
+    private final MatrixData data;
+    private final int[] shape;
+    private final long[] strides;
+    private final long offset;
+
+    /**
+     * Constructs an array over a storage holding the values in the order of
+     * IDL.
+     *
+     * @param data the storage
+     * @param shape the dimensions, the first one varying the fastest
+     * @throws IllegalArgumentException when the size of the storage does not
+     * match the dimensions
+     */
+    public NDArray(MatrixData data, int... shape) {
+        this(data, shape, contiguousStrides(shape), 0);
+        if (data.size() != length()) {
+            throw new IllegalArgumentException("The storage holds " + data.size() + " values instead of " + length());
+        }
+    }
+
+    /**
+     * Constructs a view on a storage.
+     *
+     * @param data the storage
+     * @param shape the dimensions
+     * @param strides the distance in the storage between two values along
+     * each dimension
+     * @param offset the index in the storage of the first value
+     */
+    public NDArray(MatrixData data, int[] shape, long[] strides, long offset) {
+        if (shape.length != strides.length) {
+            throw new IllegalArgumentException("The shape and the strides have different lengths");
+        }
+        this.data = data;
+        this.shape = shape.clone();
+        this.strides = strides.clone();
+        this.offset = offset;
+    }
+
+    /**
+     * Computes the strides of values stored without gap, the first dimension
+     * varying the fastest.
+     *
+     * @param shape the dimensions
+     * @return the strides
+     */
+    private static long[] contiguousStrides(int[] shape) {
+        long[] strides = new long[shape.length];
+        long stride = 1;
+        for (int i = 0; i < shape.length; i++) {
+            strides[i] = stride;
+            stride *= shape[i];
+        }
+        return strides;
+    }
+
+    /**
+     * Returns the index in the storage of a value.
+     *
+     * @param index the coordinates of the value (starts with 0)
+     * @return the index in the storage
+     * @throws IndexOutOfBoundsException when the coordinates are outside of
+     * the array
+     */
+    public long offsetOf(int... index) {
+        if (index.length != this.shape.length) {
+            throw new IndexOutOfBoundsException("Expected " + this.shape.length + " coordinates instead of " + index.length);
+        }
+        long position = this.offset;
+        for (int i = 0; i < index.length; i++) {
+            if (index[i] < 0 || index[i] >= this.shape[i]) {
+                throw new IndexOutOfBoundsException("Index " + index[i] + " out of dimension " + i + " of size " + this.shape[i]);
+            }
+            position += index[i] * this.strides[i];
+        }
+        return position;
+    }
+
+    /**
+     * Retrieves a value of the array.
+     *
+     * @param index the coordinates of the value (starts with 0)
+     * @return the value
+     */
+    public double get(int... index) {
+        return this.data.get(offsetOf(index));
+    }
+
+    /**
+     * Sets a value of the array.
+     *
+     * @param value the value
+     * @param index the coordinates of the value (starts with 0)
+     */
+    void set(double value, int... index) {
+        this.data.set(offsetOf(index), value);
+    }
+
+    /**
+     * Tells whether the values are stored without gap in the order of IDL.
+     *
+     * @return true when the array can be reshaped without copy
+     */
+    public boolean isContiguous() {
+        return Arrays.equals(this.strides, contiguousStrides(this.shape));
+    }
+
+    /**
+     * Returns a view with other dimensions on the same values.
+     *
+     * @param newShape the new dimensions, holding the same number of values
+     * @return the view, or a reshaped copy when the values are not
+     * contiguous
+     * @throws IllegalArgumentException when the number of values differs
+     */
+    public NDArray reshape(int... newShape) {
+        long newLength = 1;
+        for (int dim : newShape) {
+            newLength *= dim;
+        }
+        if (newLength != length()) {
+            throw new IllegalArgumentException("Cannot reshape " + Arrays.toString(this.shape) + " into " + Arrays.toString(newShape));
+        }
+        NDArray source = isContiguous() ? this : copy();
+        return new NDArray(source.data, newShape, contiguousStrides(newShape), source.offset);
+    }
+
+    /**
+     * Returns a view without the dimensions equal to 1.
+     *
+     * @return the view
+     */
+    public NDArray squeeze() {
+        int rank = 0;
+        for (int dim : this.shape) {
+            if (dim != 1) {
+                rank++;
+            }
+        }
+        int[] newShape = new int[rank];
+        long[] newStrides = new long[rank];
+        int j = 0;
+        for (int i = 0; i < this.shape.length; i++) {
+            if (this.shape[i] != 1) {
+                newShape[j] = this.shape[i];
+                newStrides[j] = this.strides[i];
+                j++;
+            }
+        }
+        return new NDArray(this.data, newShape, newStrides, this.offset);
+    }
+
+    /**
+     * Copies the values in a new contiguous array of the same type.
+     *
+     * @return the copy
+     */
+    public NDArray copy() {
+        NDArray result = new NDArray(this.data.newInstance(length()), this.shape);
+        if (isContiguous()) {
+            this.data.copyTo(this.offset, result.data, 0, length());
+            return result;
+        }
+        int[] index = new int[this.shape.length];
+        for (long i = 0; i < length(); i++) {
+            result.data.set(i, get(index));
+            // next coordinates, the first dimension varying the fastest
+            for (int d = 0; d < index.length && ++index[d] == this.shape[d]; d++) {
+                index[d] = 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the dimensions.
+     *
+     * @return the dimensions, the first one varying the fastest
+     */
+    public int[] getShape() {
+        return this.shape.clone();
+    }
+
+    /**
+     * Returns the distance in the storage between two values along each
+     * dimension.
+     *
+     * @return the strides
+     */
+    public long[] getStrides() {
+        return this.strides.clone();
+    }
+
+    /**
+     * Returns the index in the storage of the first value.
+     *
+     * @return the offset
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Returns the number of dimensions.
+     *
+     * @return the number of dimensions
+     */
+    public int getRank() {
+        return this.shape.length;
+    }
+
+    /**
+     * Returns the number of values.
+     *
+     * @return the number of values
+     */
+    public long length() {
+        long length = 1;
+        for (int dim : this.shape) {
+            length *= dim;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the storage of the values.
+     *
+     * @return the storage
+     */
+    public MatrixData getMatrixData() {
+        return this.data;
+    }
+
+    /**
+     * Returns the dimension of the array.
+     *
+     * @return the dimension of the array.
+     */
+    public String shape() {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < this.shape.length; i++) {
+            if (i > 0) {
+                output.append(" x ");
+            }
+            output.append(this.shape[i]);
+        }
+        return output.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "NDArray(" + shape() + ", typecode=" + this.data.getTypecode() + ")";
+    }
+}
@@ -0,0 +1,324 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Storage of the values outside of the Java heap, indexed by long.
+ *
+ * The values are kept with the encoding of a SAVE array (big-endian, 16-bit
+ * integers on 32 bits) in segments of 1 GB, either allocated as direct
+ * buffers or mapped from the file. A cube is then not limited to 2^31 values
+ * and does not weigh on the garbage collector. A storage mapped from the file
+ * is read-only.
+ */
+public class OffHeapData extends MatrixData {
+
+    /**
+     * Each segment holds 2^SEGMENT_SHIFT bytes, except the last one.
+     */
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final ByteBuffer[] segments;
+    private final int typecode;
+    private final int elementSize;
+    private final long size;
+
+    private OffHeapData(ByteBuffer[] segments, int typecode, long size) {
+        this.segments = segments;
+        this.typecode = typecode;
+        this.elementSize = elementSize(typecode);
+        this.size = size;
+    }
+
+    /**
+     * Allocates a storage in direct buffers.
+     *
+     * @param typecode the IDL type code
+     * @param size the number of values
+     * @return the storage, filled with zeros
+     */
+    public static OffHeapData allocate(int typecode, long size) {
+        long nbytes = size * elementSize(typecode);
+        ByteBuffer[] segments = new ByteBuffer[(int) ((nbytes + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            int length = (int) Math.min(SEGMENT_SIZE, nbytes - i * SEGMENT_SIZE);
+            segments[i] = ByteBuffer.allocateDirect(length).order(ByteOrder.BIG_ENDIAN);
+        }
+        return new OffHeapData(segments, typecode, size);
+    }
+
+    /**
+     * Maps the values of a SAVE array, without copying them. The values must
+     * be stored in the file in the order of the storage.
+     *
+     * @param channel the channel of the SAVE file
+     * @param position the offset of the first value in the file
+     * @param typecode the IDL type code
+     * @param size the number of values
+     * @return the read-only storage
+     * @throws IOException when the region cannot be mapped
+     */
+    public static OffHeapData map(FileChannel channel, long position, int typecode, long size) throws IOException {
+        long nbytes = size * elementSize(typecode);
+        ByteBuffer[] segments = new ByteBuffer[(int) ((nbytes + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long length = Math.min(SEGMENT_SIZE, nbytes - i * SEGMENT_SIZE);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + i * SEGMENT_SIZE, length);
+        }
+        return new OffHeapData(segments, typecode, size);
+    }
+
+    /**
+     * Returns the number of bytes of a value in a SAVE array.
+     *
+     * @param typecode the IDL type code
+     * @return the size of a value
+     * @throws UnsupportedOperationException when the type has no numeric
+     * storage
+     */
+    static int elementSize(int typecode) {
+        switch (typecode) {
+            case 1:
+                return 1;
+            case 2:
+            case 3:
+            case 4:
+            case 12:
+            case 13:
+                return 4;
+            case 5:
+            case 14:
+            case 15:
+                return 8;
+            default:
+                throw new UnsupportedOperationException("Arrays of IDL type " + typecode + " are not supported");
+        }
+    }
+
+    @Override
+    public long size() {
+        return this.size;
+    }
+
+    @Override
+    public double get(long index) {
+        long offset = index * this.elementSize;
+        ByteBuffer segment = this.segments[(int) (offset >>> SEGMENT_SHIFT)];
+        int position = (int) (offset & SEGMENT_MASK);
+        switch (this.typecode) {
+            case 1:
+                return segment.get(position) & 0xff;
+            case 2:
+                return (short) segment.getInt(position);
+            case 3:
+                return segment.getInt(position);
+            case 4:
+                return segment.getFloat(position);
+            case 5:
+                return segment.getDouble(position);
+            case 12:
+                return segment.getInt(position) & 0xffff;
+            case 13:
+                return segment.getInt(position) & 0xffffffffL;
+            case 14:
+                return segment.getLong(position);
+            default:
+                long value = segment.getLong(position);
+                return value < 0 ? (double) (value >>> 1) * 2.0 + (value & 1) : value;
+        }
+    }
+
+    /**
+     * Returns the exact value of an integer storage.
+     *
+     * @param index the index of the value
+     * @return the value, to be read as unsigned for ULONG64
+     */
+    public long getLong(long index) {
+        if (this.typecode == 14 || this.typecode == 15) {
+            long offset = index * this.elementSize;
+            return this.segments[(int) (offset >>> SEGMENT_SHIFT)].getLong((int) (offset & SEGMENT_MASK));
+        }
+        // the other types are exactly widened to double
+        return (long) get(index);
+    }
+
+    @Override
+    public void set(long index, double value) {
+        long offset = index * this.elementSize;
+        ByteBuffer segment = this.segments[(int) (offset >>> SEGMENT_SHIFT)];
+        int position = (int) (offset & SEGMENT_MASK);
+        switch (this.typecode) {
+            case 1:
+                segment.put(position, (byte) (long) value);
+                break;
+            case 2:
+                segment.putInt(position, (short) (long) value);
+                break;
+            case 12:
+                segment.putInt(position, (int) ((long) value & 0xffff));
+                break;
+            case 3:
+            case 13:
+                segment.putInt(position, (int) (long) value);
+                break;
+            case 4:
+                segment.putFloat(position, (float) value);
+                break;
+            case 5:
+                segment.putDouble(position, value);
+                break;
+            default:
+                segment.putLong(position, (long) value);
+                break;
+        }
+    }
+
+    @Override
+    public int getTypecode() {
+        return this.typecode;
+    }
+
+    /**
+     * The values are not stored in a Java array.
+     *
+     * @return null
+     */
+    @Override
+    public Object getArray() {
+        return null;
+    }
+
+    @Override
+    public boolean isUnsigned() {
+        return this.typecode == 1 || this.typecode == 12 || this.typecode == 13 || this.typecode == 15;
+    }
+
+    @Override
+    public MatrixData newInstance(long size) {
+        return allocate(this.typecode, size);
+    }
+
+    @Override
+    public void copyTo(long srcIndex, MatrixData target, long targetIndex, long length) {
+        if (target instanceof OffHeapData && ((OffHeapData) target).typecode == this.typecode) {
+            copyBytes(srcIndex * this.elementSize, (OffHeapData) target, targetIndex * this.elementSize, length * this.elementSize);
+        } else {
+            super.copyTo(srcIndex, target, targetIndex, length);
+        }
+    }
+
+    @Override
+    public void copyTo(long srcIndex, long srcStride, MatrixData target, long targetIndex, long targetStride, int count) {
+        if (!(target instanceof OffHeapData) || ((OffHeapData) target).typecode != this.typecode
+                || srcStride == 1 && targetStride == 1) {
+            super.copyTo(srcIndex, srcStride, target, targetIndex, targetStride, count);
+            return;
+        }
+        OffHeapData dst = (OffHeapData) target;
+        for (int i = 0; i < count; i++) {
+            long srcOffset = (srcIndex + i * srcStride) * this.elementSize;
+            long dstOffset = (targetIndex + i * targetStride) * this.elementSize;
+            ByteBuffer src = this.segments[(int) (srcOffset >>> SEGMENT_SHIFT)];
+            ByteBuffer out = dst.segments[(int) (dstOffset >>> SEGMENT_SHIFT)];
+            int srcPosition = (int) (srcOffset & SEGMENT_MASK);
+            int dstPosition = (int) (dstOffset & SEGMENT_MASK);
+            switch (this.elementSize) {
+                case 1:
+                    out.put(dstPosition, src.get(srcPosition));
+                    break;
+                case 4:
+                    out.putInt(dstPosition, src.getInt(srcPosition));
+                    break;
+                default:
+                    out.putLong(dstPosition, src.getLong(srcPosition));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Copies bytes between the segments of two storages.
+     */
+    private void copyBytes(long srcOffset, OffHeapData target, long targetOffset, long length) {
+        while (length > 0) {
+            ByteBuffer src = this.segments[(int) (srcOffset >>> SEGMENT_SHIFT)].duplicate();
+            ByteBuffer dst = target.segments[(int) (targetOffset >>> SEGMENT_SHIFT)].duplicate();
+            src.position((int) (srcOffset & SEGMENT_MASK));
+            dst.position((int) (targetOffset & SEGMENT_MASK));
+            int n = (int) Math.min(length, Math.min(src.remaining(), dst.remaining()));
+            src.limit(src.position() + n);
+            dst.put(src);
+            srcOffset += n;
+            targetOffset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    int elementSize() {
+        return this.elementSize;
+    }
+
+    /**
+     * The values keep the encoding of the file, so they are copied without
+     * being decoded.
+     */
+    @Override
+    void decode(ByteBuffer src, long index, long stride, int count) {
+        if (stride == 1) {
+            long offset = index * this.elementSize;
+            long length = (long) count * this.elementSize;
+            while (length > 0) {
+                ByteBuffer dst = this.segments[(int) (offset >>> SEGMENT_SHIFT)].duplicate();
+                dst.position((int) (offset & SEGMENT_MASK));
+                int n = (int) Math.min(length, dst.remaining());
+                ByteBuffer part = src.slice();
+                part.limit(n);
+                dst.put(part);
+                src.position(src.position() + n);
+                offset += n;
+                length -= n;
+            }
+            return;
+        }
+        for (long i = 0, offset = index * this.elementSize; i < count; i++, offset += stride * this.elementSize) {
+            ByteBuffer segment = this.segments[(int) (offset >>> SEGMENT_SHIFT)];
+            int position = (int) (offset & SEGMENT_MASK);
+            switch (this.elementSize) {
+                case 1:
+                    segment.put(position, src.get());
+                    break;
+                case 4:
+                    segment.putInt(position, src.getInt());
+                    break;
+                default:
+                    segment.putLong(position, src.getLong());
+                    break;
+            }
+        }
+    }
+}
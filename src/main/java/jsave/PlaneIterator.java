@@ -0,0 +1,147 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the z-planes of an array, reading them straight from the
+ * file.
+ *
+ * The planes are decoded by blocks into a buffer which is reused from one
+ * block to the next, so that the memory used is bounded by the size of a
+ * block rather than by the size of the array. The matrix returned by
+ * {@link #next()} is therefore only valid until the next call : it must be
+ * copied to be kept.
+ *
+ * The iterator owns its own cursor on the file and has to be closed.
+ */
+public class PlaneIterator implements Iterator<Matrix>, Closeable {
+
+    private final SaveInput input;
+    private final int width;
+    private final int height;
+    private final int deep;
+    private final int planesPerBlock;
+    private final MatrixData block;
+    private MatrixData lastBlock;
+    private int next;
+    private int current = -1;
+
+    /**
+     * Creates an iterator on an array.
+     *
+     * @param input the input positioned on the first value, owned by the
+     * iterator
+     * @param typecode the IDL type code
+     * @param w the number of pixels along x axis
+     * @param h the number of pixels along y axis
+     * @param d the number of planes
+     * @param planesPerBlock the number of planes decoded at once
+     * @param offHeapThreshold the size in bytes from which a block is stored
+     * off-heap
+     */
+    PlaneIterator(SaveInput input, int typecode, int w, int h, int d, int planesPerBlock, long offHeapThreshold) {
+        if (planesPerBlock < 1) {
+            throw new IllegalArgumentException("Invalid number of planes per block: " + planesPerBlock);
+        }
+        this.input = input;
+        this.width = w;
+        this.height = h;
+        this.deep = d;
+        this.planesPerBlock = Math.min(planesPerBlock, d);
+        this.block = Utils.create_values(typecode, (long) w * h * this.planesPerBlock, offHeapThreshold);
+    }
+
+    /**
+     * Returns the number of planes of the array.
+     *
+     * @return the number of planes
+     */
+    public int getDeep() {
+        return this.deep;
+    }
+
+    /**
+     * Returns the index along z of the first plane of the last block.
+     *
+     * @return the index of the plane, -1 before the first block
+     */
+    public int getPlaneIndex() {
+        return this.current;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.next < this.deep;
+    }
+
+    /**
+     * Decodes the next block of planes.
+     *
+     * @return the planes, valid until the next call
+     * @throws IllegalStateException when the file cannot be read, caused by
+     * the {@link IOException}
+     */
+    @Override
+    public Matrix next() {
+        try {
+            return nextBlock();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Decodes the next block of planes.
+     *
+     * @return the planes, valid until the next call
+     * @throws IOException when the file cannot be read
+     */
+    public Matrix nextBlock() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int count = Math.min(this.planesPerBlock, this.deep - this.next);
+        MatrixData values = this.block;
+        if (count < this.planesPerBlock) {
+            if (this.lastBlock == null) {
+                this.lastBlock = this.block.newInstance((long) this.width * this.height * count);
+            }
+            values = this.lastBlock;
+        }
+        Utils.decode_values(this.input, values, 0, values.size());
+        this.current = this.next;
+        this.next += count;
+        return new Matrix(this.width, this.height, count, values, Matrix.Layout.FILE);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.input.close();
+    }
+}
@@ -0,0 +1,127 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link SaveInput} reading the file through a {@link RandomAccessFile}.
+ *
+ * The file is read by blocks into the buffer of the cursor, so decoding a
+ * field does not cost a system call. Blocks are read with positional reads,
+ * which leave the position of the underlying channel untouched.
+ */
+public class RandomAccessSaveInput extends BufferedSaveInput {
+
+    /**
+     * Default size of the block read at once.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+
+    /**
+     * True when this input closes the file.
+     */
+    private final boolean owner;
+
+    public RandomAccessSaveInput(File file) throws FileNotFoundException {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Reads the file by blocks of the given size.
+     *
+     * @param file the SAVE file
+     * @param bufferSize the size of the block read at once
+     * @throws FileNotFoundException when the file cannot be opened
+     */
+    public RandomAccessSaveInput(File file, int bufferSize) throws FileNotFoundException {
+        this(new RandomAccessFile(file, "r"), bufferSize, true);
+    }
+
+    private RandomAccessSaveInput(RandomAccessFile raf, int bufferSize, boolean owner) {
+        super(ByteBuffer.allocate(bufferSize));
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.owner = owner;
+    }
+
+    @Override
+    protected void fill(long position, int length) throws IOException {
+        if (this.buffer.capacity() < length) {
+            this.buffer = ByteBuffer.allocate(length);
+        }
+        this.buffer.clear();
+        this.bufferStart = position;
+        while (this.buffer.position() < length) {
+            if (this.channel.read(this.buffer, position + this.buffer.position()) < 0) {
+                break;
+            }
+        }
+        this.buffer.flip();
+    }
+
+    @Override
+    public void readFully(byte[] dst, int off, int len) throws IOException {
+        if (len <= this.buffer.capacity()) {
+            super.readFully(dst, off, len);
+            return;
+        }
+        // large transfers bypass the buffer
+        int n = this.buffer.remaining();
+        this.buffer.get(dst, off, n);
+        long position = getFilePointer();
+        ByteBuffer target = ByteBuffer.wrap(dst, off + n, len - n);
+        while (target.hasRemaining()) {
+            int read = this.channel.read(target, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+        seek(position);
+    }
+
+    @Override
+    public SaveInput duplicate() throws IOException {
+        SaveInput copy = new RandomAccessSaveInput(this.raf, this.buffer.capacity(), false);
+        copy.seek(getFilePointer());
+        return copy;
+    }
+
+    @Override
+    public long length() throws IOException {
+        return this.channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.owner) {
+            this.raf.close();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.util.Arrays;
+
+/**
+ * Selection of coordinates along one axis of a {@link Matrix}.
+ *
+ * A range is either regular, from a first to a last coordinate (both
+ * included, as in IDL) with a step, or a list of coordinates. Slicing a
+ * matrix with regular ranges returns a view without any copy.
+ */
+public final class Range {
+
+    private static final Range ALL = new Range(0, 1, -1, null);
+
+    private final int first;
+    private final int step;
+
+    /**
+     * Number of coordinates, -1 for the whole axis.
+     */
+    private final int count;
+
+    /**
+     * Coordinates of a list, null for a regular range.
+     */
+    private final int[] indices;
+
+    private Range(int first, int step, int count, int[] indices) {
+        this.first = first;
+        this.step = step;
+        this.count = count;
+        this.indices = indices;
+    }
+
+    /**
+     * Selects the whole axis.
+     *
+     * @return the range
+     */
+    public static Range all() {
+        return ALL;
+    }
+
+    /**
+     * Selects a single coordinate.
+     *
+     * @param index the coordinate (starts with 0)
+     * @return the range
+     */
+    public static Range at(int index) {
+        return new Range(index, 1, 1, null);
+    }
+
+    /**
+     * Selects the coordinates from first to last, both included.
+     *
+     * @param first the first coordinate
+     * @param last the last coordinate
+     * @return the range
+     */
+    public static Range of(int first, int last) {
+        return of(first, last, 1);
+    }
+
+    /**
+     * Selects every step coordinates from first to last, both included.
+     *
+     * @param first the first coordinate
+     * @param last the last coordinate, reached or not depending on the step
+     * @param step the distance between two coordinates, negative to select
+     * them backwards
+     * @return the range
+     * @throws IllegalArgumentException when the step is 0 or goes away from
+     * the last coordinate
+     */
+    public static Range of(int first, int last, int step) {
+        if (step == 0 || (last != first && (last > first) != (step > 0))) {
+            throw new IllegalArgumentException("Invalid range " + first + ":" + last + ":" + step);
+        }
+        return new Range(first, step, (int) (((long) last - first) / step + 1), null);
+    }
+
+    /**
+     * Selects a list of coordinates.
+     *
+     * @param indices the coordinates, in any order
+     * @return the range
+     */
+    public static Range indices(int... indices) {
+        return new Range(0, 0, indices.length, indices.clone());
+    }
+
+    /**
+     * Parses a range written as <i>index</i>, <i>first:last</i>,
+     * <i>first:last:step</i> or <i>*</i> for the whole axis. The numbers may
+     * have a sign and be surrounded by whitespace.
+     *
+     * @param input the text to parse
+     * @return the range
+     * @throws IllegalArgumentException when the text is not a range
+     */
+    public static Range parse(final String input) {
+        if ("*".equals(input.trim())) {
+            return ALL;
+        }
+        int[] values = new int[3];
+        int nbValues = 0;
+        int start = 0;
+        for (int i = 0; i <= input.length(); i++) {
+            if (i == input.length() || input.charAt(i) == ':') {
+                if (nbValues == values.length) {
+                    throw new IllegalArgumentException("Wrong input parameters when defining the submaxtrix");
+                }
+                values[nbValues++] = parseInt(input, start, i);
+                start = i + 1;
+            }
+        }
+        switch (nbValues) {
+            case 1:
+                return at(values[0]);
+            case 2:
+                return of(values[0], values[1]);
+            default:
+                return of(values[0], values[1], values[2]);
+        }
+    }
+
+    /**
+     * Parses a decimal integer, with an optional sign and surrounded by
+     * optional whitespace, without raising an exception on the way.
+     *
+     * @param input the text
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the integer
+     * @throws IllegalArgumentException when the text is not an integer
+     */
+    private static int parseInt(String input, int start, int end) {
+        while (start < end && Character.isWhitespace(input.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(input.charAt(end - 1))) {
+            end--;
+        }
+        boolean negative = start < end && input.charAt(start) == '-';
+        boolean signed = negative || (start < end && input.charAt(start) == '+');
+        int i = signed ? start + 1 : start;
+        if (i == end || end - i > 10) {
+            throw new IllegalArgumentException("Wrong input parameters when defining the submaxtrix");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            char c = input.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Wrong input parameters when defining the submaxtrix");
+            }
+            value = value * 10 + (c - '0');
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Wrong input parameters when defining the submaxtrix");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Checks the range against the length of an axis.
+     *
+     * @param length the number of coordinates of the axis
+     * @return the range, the whole axis being replaced by its coordinates
+     * @throws IllegalArgumentException when a coordinate is outside of the
+     * axis
+     */
+    Range resolve(int length) {
+        if (this.count < 0) {
+            return new Range(0, 1, length, null);
+        }
+        if (this.indices != null) {
+            for (int index : this.indices) {
+                if (index < 0 || index >= length) {
+                    throw new IllegalArgumentException("Wrong input parameters when defining the submaxtrix");
+                }
+            }
+        } else {
+            int last = this.first + (this.count - 1) * this.step;
+            if (Math.min(this.first, last) < 0 || Math.max(this.first, last) >= length) {
+                throw new IllegalArgumentException("Wrong input parameters when defining the submaxtrix");
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Tells whether the coordinates are evenly spaced.
+     *
+     * @return false for a list of coordinates
+     */
+    public boolean isRegular() {
+        return this.indices == null;
+    }
+
+    /**
+     * Returns the number of coordinates.
+     *
+     * @return the number of coordinates, -1 for the whole axis
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Returns a coordinate of the range.
+     *
+     * @param i the position in the range
+     * @return the coordinate
+     */
+    public int get(int i) {
+        return this.indices == null ? this.first + i * this.step : this.indices[i];
+    }
+
+    /**
+     * Returns the first coordinate.
+     *
+     * @return the first coordinate
+     */
+    public int getFirst() {
+        return get(0);
+    }
+
+    /**
+     * Returns the distance between two coordinates of a regular range.
+     *
+     * @return the step
+     */
+    public int getStep() {
+        return this.step;
+    }
+
+    @Override
+    public String toString() {
+        if (this.count < 0) {
+            return "*";
+        }
+        if (this.indices != null) {
+            return Arrays.toString(this.indices);
+        }
+        return this.count == 1 ? String.valueOf(this.first) : this.first + ":" + get(this.count - 1) + ":" + this.step;
+    }
+}
@@ -0,0 +1,149 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.util.HashMap;
+
+/**
+ * Entry of the table of contents of a SAVE file.
+ *
+ * An entry locates a record in the file. For a VARIABLE record, it also
+ * keeps the name and the type descriptor of the variable so that its data
+ * can be decoded later without walking the file again.
+ */
+public class RecordEntry {
+
+    private final String rectype;
+    private final long offset;
+    private final long nextrec;
+    private String name;
+    private HashMap<String, Object> typedesc;
+    private long dataOffset = -1;
+    private long nbytes;
+    private long end;
+
+    RecordEntry(String rectype, long offset, long nextrec) {
+        this.rectype = rectype;
+        this.offset = offset;
+        this.nextrec = nextrec;
+    }
+
+    /**
+     * Returns the type of the record.
+     *
+     * @return the record type such as VARIABLE or TIMESTAMP
+     */
+    public String getRectype() {
+        return rectype;
+    }
+
+    /**
+     * Returns the offset of the record in the file.
+     *
+     * @return the offset of the record header
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the offset of the next record in the file.
+     *
+     * @return the offset of the next record header
+     */
+    public long getNextrec() {
+        return nextrec;
+    }
+
+    /**
+     * Returns the name of the variable.
+     *
+     * @return the variable name in lower case, null when the record is not a
+     * variable
+     */
+    public String getName() {
+        return name;
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the type descriptor of the variable.
+     *
+     * @return the type descriptor, null when the record is not a variable
+     */
+    public HashMap<String, Object> getTypedesc() {
+        return typedesc;
+    }
+
+    void setTypedesc(HashMap<String, Object> typedesc) {
+        this.typedesc = typedesc;
+    }
+
+    /**
+     * Returns the offset of the data, right after the type descriptor. For a
+     * compressed file, the offset is relative to the inflated body of the
+     * record.
+     *
+     * @return the offset of the data, -1 when the record is not a variable
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    void setDataOffset(long dataOffset) {
+        this.dataOffset = dataOffset;
+    }
+
+    /**
+     * Returns the number of bytes of the data.
+     *
+     * @return the number of bytes of the data, -1 for a scalar of a
+     * compressed file whose data was not decoded
+     */
+    public long getNbytes() {
+        return nbytes;
+    }
+
+    void setNbytes(long nbytes) {
+        this.nbytes = nbytes;
+    }
+
+    /**
+     * Returns the offset following the body of the record, in the input from
+     * which the body is decoded.
+     *
+     * @return nextrec for a plain file, the inflated length for a compressed
+     * one, -1 when the inflated length is unknown
+     */
+    long getEnd() {
+        return end;
+    }
+
+    void setEnd(long end) {
+        this.end = end;
+    }
+
+    @Override
+    public String toString() {
+        return rectype + (name == null ? "" : " " + name) + "@" + offset;
+    }
+}
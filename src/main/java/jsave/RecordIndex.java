@@ -0,0 +1,383 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Table of contents of a SAVE file, stored in a sidecar file so that the
+ * records do not have to be walked again when the file is reopened.
+ *
+ * The index holds the records with their type descriptors, the metadata and
+ * the heap indices. It is only used when the size, the modification time
+ * and a checksum of the first bytes of the SAVE file still match those
+ * recorded when it was written.
+ */
+class RecordIndex {
+
+    private static final int MAGIC = 0x4a534958; // JSIX
+    private static final int VERSION = 1;
+
+    /**
+     * Number of bytes of the SAVE file covered by the checksum.
+     */
+    private static final int HEADER_SIZE = 4 * 1024;
+
+    private static final byte NULL = 0;
+    private static final byte INTEGER = 1;
+    private static final byte LONG = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte STRING = 4;
+    private static final byte INT_ARRAY = 5;
+    private static final byte MAP = 6;
+    private static final byte MAP_ARRAY = 7;
+    private static final byte STRING_ARRAY = 8;
+    private static final byte BIG_INTEGER = 9;
+
+    private final boolean compressed;
+    private final HashMap<String, Object> metadata;
+    private final List<RecordEntry> records;
+
+    /**
+     * Heap index of each HEAP_DATA record.
+     */
+    private final HashMap<RecordEntry, Integer> heapIndices;
+
+    RecordIndex(boolean compressed, HashMap<String, Object> metadata, List<RecordEntry> records,
+            HashMap<RecordEntry, Integer> heapIndices) {
+        this.compressed = compressed;
+        this.metadata = metadata;
+        this.records = records;
+        this.heapIndices = heapIndices;
+    }
+
+    boolean isCompressed() {
+        return compressed;
+    }
+
+    HashMap<String, Object> getMetadata() {
+        return metadata;
+    }
+
+    List<RecordEntry> getRecords() {
+        return records;
+    }
+
+    /**
+     * Returns the heap index of a HEAP_DATA record.
+     *
+     * @param entry the entry of the record
+     * @return the heap index, null when the record is not a HEAP_DATA
+     */
+    Integer getHeapIndex(RecordEntry entry) {
+        return heapIndices.get(entry);
+    }
+
+    /**
+     * Computes the checksum of the first bytes of the SAVE file.
+     *
+     * @param input the input on the SAVE file
+     * @return the checksum
+     * @throws IOException when an I/O error occurs
+     */
+    private static long checksum(SaveInput input) throws IOException {
+        byte[] header = new byte[(int) Math.min(HEADER_SIZE, input.length())];
+        SaveInput in = input.duplicate();
+        try {
+            in.seek(0);
+            in.readFully(header, 0, header.length);
+        } finally {
+            in.close();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the index of a SAVE file. The index is written to a temporary
+     * file first, which then replaces the previous index.
+     *
+     * @param index the index file
+     * @param file the SAVE file
+     * @param input the input on the SAVE file
+     * @throws IOException when the index cannot be written
+     */
+    void write(File index, File file, SaveInput input) throws IOException {
+        File tmp = new File(index.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(file.length());
+            out.writeLong(file.lastModified());
+            out.writeLong(checksum(input));
+            out.writeBoolean(compressed);
+            writeValue(out, metadata);
+            out.writeInt(records.size());
+            for (RecordEntry entry : records) {
+                writeString(out, entry.getRectype());
+                out.writeLong(entry.getOffset());
+                out.writeLong(entry.getNextrec());
+                writeValue(out, entry.getName());
+                writeValue(out, entry.getTypedesc());
+                out.writeLong(entry.getDataOffset());
+                out.writeLong(entry.getNbytes());
+                out.writeLong(entry.getEnd());
+                Integer heapIndex = heapIndices.get(entry);
+                out.writeInt(heapIndex == null ? -1 : heapIndex);
+            }
+        } catch (IOException ex) {
+            tmp.delete();
+            throw ex;
+        }
+        if (!tmp.renameTo(index)) {
+            index.delete();
+            if (!tmp.renameTo(index)) {
+                tmp.delete();
+                throw new IOException("Cannot write the index " + index);
+            }
+        }
+    }
+
+    /**
+     * Reads the index of a SAVE file. The index is small, it is read at once
+     * so that the lengths it holds can be checked against its size.
+     *
+     * @param index the index file
+     * @param file the SAVE file
+     * @param input the input on the SAVE file
+     * @return the index, null when it does not exist, no longer matches the
+     * SAVE file or cannot be decoded
+     * @throws IOException when the index or the SAVE file cannot be read
+     */
+    static RecordIndex read(File index, File file, SaveInput input) throws IOException {
+        if (!index.isFile()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(index.toPath())));
+        long checksum = checksum(input);
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != file.length()
+                    || in.readLong() != file.lastModified()
+                    || in.readLong() != checksum) {
+                return null;
+            }
+            return read(in);
+        } catch (IOException | RuntimeException ex) {
+            // a truncated or damaged index is ignored
+            return null;
+        }
+    }
+
+    /**
+     * Decodes the content of an index, after its header.
+     */
+    private static RecordIndex read(DataInputStream in) throws IOException {
+        boolean compressed = in.readBoolean();
+        HashMap<String, Object> metadata = readMap(in);
+        int length = readLength(in);
+        List<RecordEntry> records = new ArrayList<>(length);
+        HashMap<RecordEntry, Integer> heapIndices = new HashMap<>();
+        for (int i = 0; i < length; i++) {
+            RecordEntry entry = new RecordEntry(readString(in), in.readLong(), in.readLong());
+            entry.setName((String) readValue(in));
+            entry.setTypedesc(readMap(in));
+            entry.setDataOffset(in.readLong());
+            entry.setNbytes(in.readLong());
+            entry.setEnd(in.readLong());
+            int heapIndex = in.readInt();
+            if (heapIndex >= 0) {
+                heapIndices.put(entry, heapIndex);
+            }
+            records.add(entry);
+        }
+        return new RecordIndex(compressed, metadata, records, heapIndices);
+    }
+
+    /**
+     * Reads a length, which cannot exceed the number of bytes left in the
+     * index.
+     */
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid index, length " + length);
+        }
+        return length;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a value of a descriptor or of the metadata, preceded by its
+     * type.
+     */
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof int[]) {
+            int[] values = (int[]) value;
+            out.writeByte(INT_ARRAY);
+            out.writeInt(values.length);
+            for (int v : values) {
+                out.writeInt(v);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                writeString(out, (String) e.getKey());
+                writeValue(out, e.getValue());
+            }
+        } else if (value instanceof HashMap[]) {
+            HashMap<?, ?>[] maps = (HashMap<?, ?>[]) value;
+            out.writeByte(MAP_ARRAY);
+            out.writeInt(maps.length);
+            for (HashMap<?, ?> map : maps) {
+                writeValue(out, map);
+            }
+        } else if (value instanceof String[]) {
+            String[] values = (String[]) value;
+            out.writeByte(STRING_ARRAY);
+            out.writeInt(values.length);
+            for (String v : values) {
+                writeString(out, v);
+            }
+        } else if (value instanceof BigInteger) {
+            byte[] bytes = ((BigInteger) value).toByteArray();
+            out.writeByte(BIG_INTEGER);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            throw new IOException("Cannot index a value of " + value.getClass());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case BOOLEAN:
+                return in.readBoolean();
+            case STRING:
+                return readString(in);
+            case INT_ARRAY: {
+                int[] values = new int[readLength(in)];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = in.readInt();
+                }
+                return values;
+            }
+            case MAP:
+                return readMapEntries(in);
+            case MAP_ARRAY: {
+                HashMap<?, ?>[] maps = new HashMap<?, ?>[readLength(in)];
+                for (int i = 0; i < maps.length; i++) {
+                    maps[i] = readMap(in);
+                }
+                return maps;
+            }
+            case STRING_ARRAY: {
+                String[] values = new String[readLength(in)];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = readString(in);
+                }
+                return values;
+            }
+            case BIG_INTEGER: {
+                byte[] bytes = new byte[readLength(in)];
+                in.readFully(bytes);
+                return new BigInteger(bytes);
+            }
+            default:
+                throw new IOException("Invalid index, unknown value type " + type);
+        }
+    }
+
+    /**
+     * Reads a value written by {@link #writeValue} which must be a map or
+     * null.
+     */
+    private static HashMap<String, Object> readMap(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == NULL) {
+            return null;
+        }
+        if (type != MAP) {
+            throw new IOException("Invalid index, expected a map but found the value type " + type);
+        }
+        return readMapEntries(in);
+    }
+
+    /**
+     * Reads the entries of a map, after its type.
+     */
+    private static HashMap<String, Object> readMapEntries(DataInputStream in) throws IOException {
+        int size = readLength(in);
+        HashMap<String, Object> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            map.put(key, readValue(in));
+        }
+        return map;
+    }
+}
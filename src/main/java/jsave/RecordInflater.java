@@ -0,0 +1,110 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates the records of a compressed SAVE file.
+ *
+ * In a file written with /COMPRESS, the body of each record is a zlib
+ * stream. The stream is read by chunks and inflated straight into a buffer
+ * that is reused from one record to the next, and which is then decoded in
+ * place. A buffer grown beyond MAX_KEPT_SIZE by a large record is released
+ * rather than reused, so that one large record does not pin its memory for
+ * the life of the reader.
+ */
+class RecordInflater {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Largest buffer kept from one record to the next.
+     */
+    private static final int MAX_KEPT_SIZE = 16 * 1024 * 1024;
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private byte[] data = new byte[CHUNK_SIZE];
+    private final ByteArraySaveInput record = new ByteArraySaveInput();
+
+    /**
+     * Inflates the compressed bytes located between start and end.
+     *
+     * The returned input is only valid until the next call.
+     *
+     * @param file the compressed file
+     * @param start offset of the first compressed byte
+     * @param end offset following the last compressed byte
+     * @return the input on the inflated record, positioned at its beginning
+     * @throws IOException when the record cannot be read or inflated
+     */
+    SaveInput inflate(SaveInput file, long start, long end) throws IOException {
+        trim();
+        Inflater inflater = InflaterPool.acquire();
+        try {
+            file.seek(start);
+            long remaining = end - start;
+            int length = 0;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (remaining == 0) {
+                        throw new EOFException("Truncated compressed record at " + start);
+                    }
+                    int n = (int) Math.min(this.chunk.length, remaining);
+                    file.readFully(this.chunk, 0, n);
+                    remaining -= n;
+                    inflater.setInput(this.chunk, 0, n);
+                }
+                if (length == this.data.length) {
+                    if (length == MatrixData.MAX_ARRAY_SIZE) {
+                        throw new IOException("The compressed record at " + start
+                                + " is larger than 2 GB, its arrays can be read with JSave.iteratePlanes or JSave.readSlab");
+                    }
+                    this.data = Arrays.copyOf(this.data, (int) Math.min(2L * length, MatrixData.MAX_ARRAY_SIZE));
+                }
+                length += inflater.inflate(this.data, length, this.data.length - length);
+                if (inflater.needsDictionary()) {
+                    throw new IOException("Unsupported preset dictionary in record at " + start);
+                }
+            }
+            this.record.reset(this.data, length);
+            return this.record;
+        } catch (DataFormatException ex) {
+            throw new IOException("Invalid compressed record at " + start, ex);
+        } finally {
+            InflaterPool.release(inflater);
+        }
+    }
+
+    /**
+     * Releases the buffer when a large record made it grow beyond
+     * MAX_KEPT_SIZE. The input returned by the last call is then no longer
+     * valid.
+     */
+    void trim() {
+        if (this.data.length > MAX_KEPT_SIZE) {
+            this.data = new byte[CHUNK_SIZE];
+            this.record.reset(this.data, 0);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Big-endian input from which the records of a SAVE file are decoded.
+ *
+ * Every primitive of the SAVE format is read through this interface so that
+ * the decoding code in {@link Utils} does not depend on how the bytes are
+ * fetched from the file.
+ */
+public interface SaveInput extends Closeable {
+
+    /**
+     * Reads one byte.
+     *
+     * @return the byte
+     * @throws IOException when the end of the file is reached
+     */
+    byte readByte() throws IOException;
+
+    /**
+     * Reads a big-endian 16-bit integer.
+     *
+     * @return the short
+     * @throws IOException when the end of the file is reached
+     */
+    short readShort() throws IOException;
+
+    /**
+     * Reads a big-endian 32-bit integer.
+     *
+     * @return the integer
+     * @throws IOException when the end of the file is reached
+     */
+    int readInt() throws IOException;
+
+    /**
+     * Reads a big-endian 64-bit integer.
+     *
+     * @return the long
+     * @throws IOException when the end of the file is reached
+     */
+    long readLong() throws IOException;
+
+    /**
+     * Reads a big-endian single precision float.
+     *
+     * @return the float
+     * @throws IOException when the end of the file is reached
+     */
+    float readFloat() throws IOException;
+
+    /**
+     * Reads a big-endian double precision float.
+     *
+     * @return the double
+     * @throws IOException when the end of the file is reached
+     */
+    double readDouble() throws IOException;
+
+    /**
+     * Reads exactly len bytes.
+     *
+     * @param dst the array where the bytes are copied
+     * @param off the offset in dst
+     * @param len the number of bytes to read
+     * @throws IOException when the end of the file is reached
+     */
+    void readFully(byte[] dst, int off, int len) throws IOException;
+
+    /**
+     * Reads len bytes as a big-endian buffer, so that arrays can be decoded
+     * in bulk through the typed views of the buffer.
+     *
+     * The buffer may share the memory of the input : it is only valid until
+     * the next read.
+     *
+     * @param len the number of bytes to read
+     * @return a buffer positioned on the first byte, whose limit is len
+     * @throws IOException when the end of the file is reached
+     */
+    ByteBuffer readBuffer(int len) throws IOException;
+
+    /**
+     * Reads length bytes and decodes them as an UTF-8 string.
+     *
+     * @param length the number of bytes to read
+     * @return the string
+     * @throws IOException when the end of the file is reached
+     */
+    String readString(int length) throws IOException;
+
+    /**
+     * Returns the current offset in the file.
+     *
+     * @return the offset in bytes from the beginning of the file
+     * @throws IOException when an I/O error occurs
+     */
+    long getFilePointer() throws IOException;
+
+    /**
+     * Sets the offset at which the next read occurs.
+     *
+     * @param pos the offset in bytes from the beginning of the file
+     * @throws IOException when an I/O error occurs
+     */
+    void seek(long pos) throws IOException;
+
+    /**
+     * Returns an independent cursor on the same file.
+     *
+     * The duplicate has its own offset, so that it can be used by another
+     * thread. Closing it does not close the file.
+     *
+     * @return a new input positioned at the same offset
+     * @throws IOException when an I/O error occurs
+     */
+    SaveInput duplicate() throws IOException;
+
+    /**
+     * Returns the length of the file.
+     *
+     * @return the length in bytes
+     * @throws IOException when an I/O error occurs
+     */
+    long length() throws IOException;
+}
@@ -0,0 +1,195 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metadata of a SAVE file and description of its variables, read without
+ * decoding their data.
+ *
+ * @see JSave#scan()
+ */
+public class SaveSchema {
+
+    /**
+     * Description of a variable.
+     */
+    public static final class Variable {
+
+        private final String name;
+        private final int typecode;
+        private final int[] dims;
+        private final long nelements;
+        private final String structName;
+
+        Variable(String name, int typecode, int[] dims, long nelements, String structName) {
+            this.name = name;
+            this.typecode = typecode;
+            this.dims = dims;
+            this.nelements = nelements;
+            this.structName = structName;
+        }
+
+        /**
+         * Returns the name of the variable.
+         *
+         * @return the name in lower case
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the IDL type code of the variable, 8 for a structure.
+         *
+         * @return the type code
+         */
+        public int getTypecode() {
+            return typecode;
+        }
+
+        /**
+         * Returns the dimensions of an array, in the IDL order (the first one
+         * varies fastest).
+         *
+         * @return the dimensions, empty for a scalar
+         */
+        public int[] getDims() {
+            return dims.clone();
+        }
+
+        /**
+         * Returns the number of values of the variable.
+         *
+         * @return the number of values, 1 for a scalar
+         */
+        public long getNelements() {
+            return nelements;
+        }
+
+        /**
+         * Returns the name of the structure of the variable.
+         *
+         * @return the structure name, null when the variable is not a
+         * structure
+         */
+        public String getStructName() {
+            return structName;
+        }
+
+        /**
+         * Tells whether the variable is an array.
+         *
+         * @return true for an array
+         */
+        public boolean isArray() {
+            return dims.length > 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder(name).append(" typecode ").append(typecode);
+            if (structName != null) {
+                result.append(" ").append(structName);
+            }
+            for (int i = 0; i < dims.length; i++) {
+                result.append(i == 0 ? " [" : " x ").append(dims[i]);
+            }
+            return result.append(dims.length > 0 ? "]" : "").toString();
+        }
+    }
+
+    private final Map<String, Object> metadata;
+    private final Map<String, Variable> variables = new LinkedHashMap<>();
+
+    /**
+     * Builds the schema from the records of a file.
+     *
+     * @param metadata the metadata read from the file
+     * @param records the records of the file, with their type descriptors
+     */
+    SaveSchema(Map<String, Object> metadata, List<RecordEntry> records) {
+        HashMap<String, Object> copy = new HashMap<>(metadata);
+        copy.remove("rectype");
+        this.metadata = Collections.unmodifiableMap(copy);
+        for (RecordEntry entry : records) {
+            if ("VARIABLE".equals(entry.getRectype())) {
+                this.variables.put(entry.getName(), describe(entry));
+            }
+        }
+    }
+
+    private static Variable describe(RecordEntry entry) {
+        HashMap<String, Object> typedesc = entry.getTypedesc();
+        int typecode = (int) typedesc.get("typecode");
+        int[] dims = new int[0];
+        long nelements = 1;
+        if (typedesc.containsKey("array_desc")) {
+            HashMap arrayDesc = (HashMap) typedesc.get("array_desc");
+            dims = Arrays.copyOf((int[]) arrayDesc.get("dims"), (int) arrayDesc.get("ndims"));
+            nelements = Utils.desc_long(arrayDesc, "nelements");
+        }
+        String structName = null;
+        if (typedesc.containsKey("struct_desc")) {
+            structName = (String) ((HashMap) typedesc.get("struct_desc")).get("name");
+        }
+        return new Variable(entry.getName(), typecode, dims, nelements, structName);
+    }
+
+    /**
+     * Returns the metadata of the file, such as the date, the user, the IDL
+     * release or the author.
+     *
+     * @return the metadata
+     */
+    public Map<String, Object> getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Returns the variables, in the order in which they are stored.
+     *
+     * @return the variables
+     */
+    public List<Variable> getVariables() {
+        return Collections.unmodifiableList(new ArrayList<>(variables.values()));
+    }
+
+    /**
+     * Returns a variable.
+     *
+     * @param name the name of the variable, in any case
+     * @return the variable, null when the file does not hold it
+     */
+    public Variable getVariable(String name) {
+        return variables.get(name.toLowerCase());
+    }
+
+    @Override
+    public String toString() {
+        return "SaveSchema " + metadata + " " + variables.values();
+    }
+}
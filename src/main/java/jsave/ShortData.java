@@ -0,0 +1,130 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Storage of 16-bit integers (IDL INT and UINT).
+ */
+public class ShortData extends MatrixData {
+
+    private final short[] values;
+    private final boolean unsigned;
+
+    public ShortData(int size, boolean unsigned) {
+        this(new short[size], unsigned);
+    }
+
+    /**
+     * Wraps an array without copying it.
+     *
+     * @param values the values
+     * @param unsigned true to read the values as unsigned integers
+     */
+    public ShortData(short[] values, boolean unsigned) {
+        this.values = values;
+        this.unsigned = unsigned;
+    }
+
+    @Override
+    public long size() {
+        return this.values.length;
+    }
+
+    @Override
+    public double get(long index) {
+        return getInt(index);
+    }
+
+    @Override
+    public void set(long index, double value) {
+        this.values[(int) index] = (short) (long) value;
+    }
+
+    /**
+     * Returns a value, promoted to int when the view is unsigned.
+     *
+     * @param index the index of the value
+     * @return the value
+     */
+    public int getInt(long index) {
+        return this.unsigned ? this.values[(int) index] & 0xffff : this.values[(int) index];
+    }
+
+    @Override
+    public boolean isUnsigned() {
+        return this.unsigned;
+    }
+
+    /**
+     * Returns a view of the same values with another signedness.
+     *
+     * @param unsignedView true to read the values as unsigned integers
+     * @return the view sharing the values
+     */
+    public ShortData asUnsigned(boolean unsignedView) {
+        return new ShortData(this.values, unsignedView);
+    }
+
+    @Override
+    public int getTypecode() {
+        return this.unsigned ? 12 : 2;
+    }
+
+    @Override
+    public short[] getArray() {
+        return this.values;
+    }
+
+    @Override
+    public MatrixData newInstance(long size) {
+        return isHeapSize(size) ? new ShortData((int) size, this.unsigned) : OffHeapData.allocate(getTypecode(), size);
+    }
+
+    @Override
+    public void copyTo(long srcIndex, long srcStride, MatrixData target, long targetIndex, long targetStride, int count) {
+        if (!(target instanceof ShortData) || srcStride == 1 && targetStride == 1) {
+            super.copyTo(srcIndex, srcStride, target, targetIndex, targetStride, count);
+            return;
+        }
+        short[] dst = ((ShortData) target).values;
+        int s = (int) srcIndex;
+        int t = (int) targetIndex;
+        for (int i = 0; i < count; i++, s += srcStride, t += targetStride) {
+            dst[t] = this.values[s];
+        }
+    }
+
+    @Override
+    int elementSize() {
+        return 4;
+    }
+
+    @Override
+    void decode(ByteBuffer src, long index, long stride, int count) {
+        // 16-bit values are stored on 32 bits in a SAVE array
+        IntBuffer view = src.asIntBuffer();
+        for (int i = 0, j = (int) index; i < count; i++, j += (int) stride) {
+            this.values[j] = (short) view.get(i);
+        }
+        src.position(src.position() + count * 4);
+    }
+}
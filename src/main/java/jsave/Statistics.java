@@ -0,0 +1,171 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+/**
+ * Statistics of the values of a plane of a {@link Matrix}.
+ *
+ * NaN values are counted apart and ignored by the other statistics.
+ */
+public final class Statistics {
+
+    private final long count;
+    private final long nanCount;
+    private final double min;
+    private final double max;
+    private final double sum;
+    private final double mean;
+    private final double variance;
+
+    /**
+     * Constructs the statistics.
+     *
+     * @param count the number of values which are not NaN
+     * @param nanCount the number of NaN values
+     * @param min the minimum
+     * @param max the maximum
+     * @param sum the sum
+     * @param mean the mean
+     * @param variance the sample variance
+     */
+    Statistics(long count, long nanCount, double min, double max, double sum, double mean, double variance) {
+        this.count = count;
+        this.nanCount = nanCount;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.mean = mean;
+        this.variance = variance;
+    }
+
+    /**
+     * Computes the statistics of a plane.
+     *
+     * @param matrix the matrix
+     * @param z the deep of the plane
+     * @return the statistics
+     */
+    static Statistics of(Matrix matrix, int z) {
+        long count = 0;
+        long nanCount = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        // the values are shifted by the first one to keep the precision of
+        // the variance
+        double shift = Double.NaN;
+        double shiftedSum = 0;
+        double shiftedSquares = 0;
+        for (int x = 0; x < matrix.getWidth(); x++) {
+            for (int y = 0; y < matrix.getHeight(); y++) {
+                double value = matrix.getCubeValue(x, y, z);
+                if (value != value) {
+                    nanCount++;
+                    continue;
+                }
+                if (count == 0) {
+                    shift = value;
+                }
+                count++;
+                if (min > value) {
+                    min = value;
+                }
+                if (max < value) {
+                    max = value;
+                }
+                double delta = value - shift;
+                shiftedSum += delta;
+                shiftedSquares += delta * delta;
+            }
+        }
+        double sum = shiftedSum + count * (count == 0 ? 0 : shift);
+        double mean = count == 0 ? Double.NaN : sum / count;
+        double variance = count < 2 ? Double.NaN : (shiftedSquares - shiftedSum * shiftedSum / count) / (count - 1);
+        return new Statistics(count, nanCount, min, max, sum, mean, variance);
+    }
+
+    /**
+     * Returns the number of values which are not NaN.
+     *
+     * @return the number of values
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Returns the number of NaN values.
+     *
+     * @return the number of NaN values
+     */
+    public long getNanCount() {
+        return this.nanCount;
+    }
+
+    /**
+     * Returns the minimum.
+     *
+     * @return the minimum, or positive infinity without values
+     */
+    public double getMin() {
+        return this.min;
+    }
+
+    /**
+     * Returns the maximum.
+     *
+     * @return the maximum, or negative infinity without values
+     */
+    public double getMax() {
+        return this.max;
+    }
+
+    /**
+     * Returns the sum.
+     *
+     * @return the sum
+     */
+    public double getSum() {
+        return this.sum;
+    }
+
+    /**
+     * Returns the mean.
+     *
+     * @return the mean, or NaN without values
+     */
+    public double getMean() {
+        return this.mean;
+    }
+
+    /**
+     * Returns the sample variance, as computed by the VARIANCE function of
+     * IDL.
+     *
+     * @return the variance, or NaN with less than two values
+     */
+    public double getVariance() {
+        return this.variance;
+    }
+
+    @Override
+    public String toString() {
+        return "min=" + this.min + ", max=" + this.max + ", mean=" + this.mean + ", variance=" + this.variance
+                + ", sum=" + this.sum + ", count=" + this.count + ", nan=" + this.nanCount;
+    }
+}
@@ -0,0 +1,221 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Creates an array of IDL structures stored by columns.
+ *
+ * Each tag of the structure is a column holding the values of all the rows,
+ * rather than one object per row, so that a catalog of hundreds of
+ * thousands of rows only needs a few arrays. A column is a
+ * {@link MatrixData} of the type of the tag, or an array of String for the
+ * string tags. The tags of nested structures are flattened in columns named
+ * <i>TAG.SUBTAG</i>.
+ *
+ * A row may hold several values of a column, when the tag is an array or
+ * belongs to an array of nested structures : the values of the row r are then
+ * stored from r * getValuesPerRow(name). The complex tags hold two values per
+ * complex number, the real part followed by the imaginary part. The pointer
+ * tags hold the index of the pointed variable in the heap, 0 for a null
+ * pointer.
+ */
+public class Structure {
+
+    private final String name;
+    private final int[] shape;
+    private final int rows;
+    private final LinkedHashMap<String, Object> columns = new LinkedHashMap<>();
+    private final HashMap<String, Integer> typecodes = new HashMap<>();
+    private final HashMap<String, Integer> valuesPerRow = new HashMap<>();
+
+    /**
+     * Constructs an array of structures without column.
+     *
+     * @param name the name of the structure, empty for an anonymous one
+     * @param shape the dimensions of the array, in the order of IDL
+     * @param rows the number of structures
+     */
+    Structure(String name, int[] shape, int rows) {
+        this.name = name;
+        this.shape = shape.clone();
+        this.rows = rows;
+    }
+
+    /**
+     * Adds a column.
+     *
+     * @param column the name of the column
+     * @param typecode the IDL type code of the tag
+     * @param count the number of values of a row
+     * @param values the storage of the values
+     */
+    void addColumn(String column, int typecode, int count, Object values) {
+        this.columns.put(column, values);
+        this.typecodes.put(column, typecode);
+        this.valuesPerRow.put(column, count);
+    }
+
+    /**
+     * Returns the name of the structure.
+     *
+     * @return the name, empty for an anonymous structure
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns the number of structures.
+     *
+     * @return the number of rows
+     */
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Returns the dimensions of the array of structures.
+     *
+     * @return the dimensions, in the order of IDL
+     */
+    public int[] getShape() {
+        return this.shape.clone();
+    }
+
+    /**
+     * Returns the names of the columns, in the order of the tags.
+     *
+     * @return the names of the columns
+     */
+    public Set<String> getColumnNames() {
+        return Collections.unmodifiableSet(this.columns.keySet());
+    }
+
+    /**
+     * Returns the values of a column.
+     *
+     * @param column the name of the column, case insensitive
+     * @return a {@link MatrixData} or an array of String, null when there is
+     * no such column
+     */
+    public Object getColumn(String column) {
+        return this.columns.get(column.toUpperCase());
+    }
+
+    /**
+     * Returns the values of a numeric column.
+     *
+     * @param column the name of the column, case insensitive
+     * @return the values
+     * @throws IllegalArgumentException when the column does not exist or
+     * holds strings
+     */
+    public MatrixData getValues(String column) {
+        Object values = getColumn(column);
+        if (!(values instanceof MatrixData)) {
+            throw new IllegalArgumentException("No numeric column " + column + " in " + this);
+        }
+        return (MatrixData) values;
+    }
+
+    /**
+     * Returns the values of a string column.
+     *
+     * @param column the name of the column, case insensitive
+     * @return the values
+     * @throws IllegalArgumentException when the column does not exist or
+     * is numeric
+     */
+    public String[] getStrings(String column) {
+        Object values = getColumn(column);
+        if (!(values instanceof String[])) {
+            throw new IllegalArgumentException("No string column " + column + " in " + this);
+        }
+        return (String[]) values;
+    }
+
+    /**
+     * Returns the IDL type code of a column.
+     *
+     * @param column the name of the column, case insensitive
+     * @return the type code of the tag
+     * @throws IllegalArgumentException when there is no such column
+     */
+    public int getTypecode(String column) {
+        return checkColumn(this.typecodes.get(column.toUpperCase()), column);
+    }
+
+    /**
+     * Returns the number of values of a column in each row.
+     *
+     * @param column the name of the column, case insensitive
+     * @return the number of values in a row, twice the number of complex
+     * numbers for a complex column
+     * @throws IllegalArgumentException when there is no such column
+     */
+    public int getValuesPerRow(String column) {
+        return checkColumn(this.valuesPerRow.get(column.toUpperCase()), column);
+    }
+
+    private int checkColumn(Integer value, String column) {
+        if (value == null) {
+            throw new IllegalArgumentException("No column " + column + " in " + this);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the first value of a numeric column in a row.
+     *
+     * @param column the name of the column, case insensitive
+     * @param row the row (starts with 0)
+     * @return the value
+     * @throws IllegalArgumentException when the column does not exist or
+     * holds strings
+     */
+    public double getValue(String column, int row) {
+        return getValues(column).get((long) row * getValuesPerRow(column));
+    }
+
+    /**
+     * Returns the dimensions of the array of structures as a string.
+     *
+     * @return the dimensions, as "2 x 3"
+     */
+    public String shape() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < this.shape.length; i++) {
+            if (i > 0) {
+                result.append(" x ");
+            }
+            result.append(this.shape[i]);
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "Structure " + this.name + "[" + shape() + "] " + this.columns.keySet();
+    }
+}
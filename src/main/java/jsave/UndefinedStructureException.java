@@ -0,0 +1,49 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+/**
+ * Thrown when a structure descriptor refers to a structure (PREDEF) whose
+ * definition has not been read yet.
+ */
+public class UndefinedStructureException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+
+    /**
+     * Creates the exception for a structure.
+     *
+     * @param name the name of the structure
+     */
+    public UndefinedStructureException(final String name) {
+        super("PREDEF=1 but can't find definition");
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the undefined structure.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+}
@@ -20,21 +20,33 @@ package jsave;
 
 import org.apache.commons.math3.complex.Complex;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Utility class.
  */
 public class Utils {
 
-    public static final HashMap STRUCT_DICT = new HashMap();
+    /**
+     * Number of bytes of an array decoded at once.
+     */
+    private static final int DECODE_CHUNK_SIZE = 32 * 1024;
+
+    /**
+     * Largest gap in bytes between two runs of a slab which are read at once.
+     */
+    private static final int SLAB_GAP_SIZE = 32 * 1024;
+
+    /**
+     * Largest number of bytes of a slab read at once.
+     */
+    private static final int SLAB_READ_SIZE = 1024 * 1024;
 
     private static final HashMap<Integer, String> DTYPE_DICT = new HashMap<Integer, String>() {
         {
@@ -56,120 +68,121 @@ public class Utils {
         }
     };
 
-    public static int read_long(final RandomAccessFile raf) throws IOException {
-        byte[] data = new byte[4];
-        raf.read(data);
-        ByteBuffer bb = ByteBuffer.allocate(data.length);
-        bb.put(data);        
-        return bb.getInt(0);
+    public static int read_long(final SaveInput input) throws IOException {
+        return input.readInt();
     }
 
-    // TODO To be verified
-    public static int read_uint16(final RandomAccessFile raf) throws IOException {
-        byte[] data = new byte[2];
-        raf.read(data);
-        ByteBuffer bb = ByteBuffer.allocate(data.length);
-        bb.put(data);
-        return getUnsignedShort(bb);
+    /**
+     * Reads an unsigned Integer (0 to 65535), stored in the low half of a
+     * 32-bit word.
+     *
+     * @param input the 4 Bytes where the file is read
+     * @return an Integer
+     * @throws IOException when the end of the file is reached
+     */
+    public static int read_uint16(final SaveInput input) throws IOException {
+        return input.readInt() & 0xffff;
     }
 
-    public static long read_uint32(final RandomAccessFile raf) throws IOException {
-        byte[] data = new byte[4];
-        raf.read(data);
-        ByteBuffer bb = ByteBuffer.allocate(data.length);
-        bb.put(data);        
-        return getUnsignedInt(bb);
+    public static long read_uint32(final SaveInput input) throws IOException {
+        return input.readInt() & 0xffffffffL;
     }
 
-    private static BigInteger read_uint64(final RandomAccessFile raf) throws IOException {
-        byte[] data = new byte[8];
-        raf.read(data);
-        return new BigInteger(1, data);
+    private static BigInteger read_uint64(final SaveInput input) throws IOException {
+        long value = input.readLong();
+        BigInteger result = BigInteger.valueOf(value & Long.MAX_VALUE);
+        return value < 0 ? result.setBit(Long.SIZE - 1) : result;
     }
 
-    public static String read_string(final RandomAccessFile raf) throws IOException {
-        int length = read_long(raf);
+    public static String read_string(final SaveInput input) throws IOException {
+        int length = read_long(input);
         String result;
         if (length > 0) {
-            byte[] data = new byte[length];
-            raf.read(data);
-            align_32(raf);
-            result = new String(data, StandardCharsets.UTF_8);
+            result = input.readString(length);
+            align_32(input);
         } else {
             result = "";
         }
         return result;
     }
 
-    public static String read_string_data(final RandomAccessFile raf) throws IOException {
-        int length = read_long(raf);
+    public static String read_string_data(final SaveInput input) throws IOException {
+        int length = read_long(input);
         String result;
         if (length > 0) {
-            length = read_long(raf);
-            byte[] data = new byte[length];
-            raf.read(data);
-            align_32(raf);
-            result = new String(data, StandardCharsets.UTF_8);
+            length = read_long(input);
+            result = input.readString(length);
+            align_32(input);
         } else {
             result = "";
         }
         return result;
     }
 
-    public static HashMap<String, Object> read_typedesc(final RandomAccessFile raf) throws IOException, Exception {
+    /**
+     * Reads the type descriptor of a variable.
+     *
+     * @param input the input
+     * @param structDict the structure definitions already read from the
+     * file, by name
+     * @return the type descriptor
+     * @throws IOException when an I/O error occurs
+     * @throws Exception when the descriptor is not valid
+     */
+    public static HashMap<String, Object> read_typedesc(final SaveInput input, final Map<String, HashMap<String, Object>> structDict) throws IOException, Exception {
         HashMap<String, Object> typedesc = new HashMap<>();
-        typedesc.put("typecode", read_long(raf));
-        typedesc.put("varflags", read_long(raf));
+        typedesc.put("typecode", read_long(input));
+        typedesc.put("varflags", read_long(input));
         if (2 == ((int) typedesc.get("varflags") & 2)) {
             throw new Exception("System variables not implemented");
         }
         typedesc.put("array", ((int) typedesc.get("varflags") & 4) == 4);
         typedesc.put("structure", ((int) typedesc.get("varflags") & 32) == 32);
         if ((boolean) typedesc.get("structure")) {
-            typedesc.put("array_desc", read_arraydesc(raf));
-            typedesc.put("struct_desc", read_structdesc(raf));
+            typedesc.put("array_desc", read_arraydesc(input));
+            typedesc.put("struct_desc", read_structdesc(input, structDict));
         } else if ((boolean) typedesc.get("array")) {
-            typedesc.put("array_desc", read_arraydesc(raf));
+            typedesc.put("array_desc", read_arraydesc(input));
         }
         return typedesc;
     }
 
-    public static HashMap<String, Object> read_arraydesc(final RandomAccessFile raf) throws IOException, Exception {
+    public static HashMap<String, Object> read_arraydesc(final SaveInput input) throws IOException, Exception {
         HashMap<String, Object> arraydesc = new HashMap<>();
-        arraydesc.put("arrstart", read_long(raf));
+        arraydesc.put("arrstart", read_long(input));
         int arrStart = (int) arraydesc.get("arrstart");
         switch (arrStart) {
             case 8:
-                skip_bytes(raf, 4);
-                arraydesc.put("nbytes", read_long(raf));
-                arraydesc.put("nelements", read_long(raf));
-                arraydesc.put("ndims", read_long(raf));
-                skip_bytes(raf, 8);
-                arraydesc.put("nmax", read_long(raf));
+                skip_bytes(input, 4);
+                arraydesc.put("nbytes", read_long(input));
+                arraydesc.put("nelements", read_long(input));
+                arraydesc.put("ndims", read_long(input));
+                skip_bytes(input, 8);
+                arraydesc.put("nmax", read_long(input));
                 int length = (int) arraydesc.get("nmax");
                 int[] dims = new int[length];
                 for (int i = 0; i < length; i++) {
-                    dims[i] = read_long(raf);
+                    dims[i] = read_long(input);
                 }
                 arraydesc.put("dims", dims);
                 break;
             case 18:
-                throw new UnsupportedOperationException("arrstart=18 is not supported");
-            //warnings.warn("Using experimental 64-bit array read")
-            //_skip_bytes(f, 8)
-
-            //arraydesc['nbytes'] = _read_uint64(f)
-            //arraydesc['nelements'] = _read_uint64(f)
-            //arraydesc['ndims'] = _read_long(f)
-            //_skip_bytes(f, 8)
-            //arraydesc['nmax'] = 8
-            //arraydesc['dims'] = []
-            //for d in range(arraydesc['nmax']):
-            //    v = _read_long(f)
-            //    if v != 0:
-            //        raise Exception("Expected a zero in ARRAY_DESC")
-            //    arraydesc['dims'].append(_read_long(f))                
-            //break;
+                // 64-bit descriptor of the arrays larger than 2 GB
+                skip_bytes(input, 8);
+                arraydesc.put("nbytes", input.readLong());
+                arraydesc.put("nelements", input.readLong());
+                arraydesc.put("ndims", read_long(input));
+                skip_bytes(input, 8);
+                arraydesc.put("nmax", 8);
+                int[] dims64 = new int[8];
+                for (int i = 0; i < dims64.length; i++) {
+                    if (read_long(input) != 0) {
+                        throw new Exception("Expected a zero in ARRAY_DESC");
+                    }
+                    dims64[i] = read_long(input);
+                }
+                arraydesc.put("dims", dims64);
+                break;
             default:
                 throw new Exception("Unknown ARRSTART: " + arraydesc.get("arrstart"));
         }
@@ -177,16 +190,45 @@ public class Utils {
         return arraydesc;
     }
 
-    public static HashMap<String, Object> read_structdesc(final RandomAccessFile raf) throws IOException, Exception {
+    /**
+     * Returns a size of an array descriptor, which is a long in a 64-bit
+     * descriptor and an int otherwise.
+     *
+     * @param array_desc the description of the array
+     * @param key "nbytes" or "nelements"
+     * @return the size
+     */
+    static long desc_long(HashMap array_desc, String key) {
+        return ((Number) array_desc.get(key)).longValue();
+    }
+
+    /**
+     * Reads a structure descriptor.
+     *
+     * A structure is defined once in a file, its following descriptors only
+     * refer to the definition by name (PREDEF). The definitions are kept in
+     * the dictionary of the file being read, so that files with different
+     * structures of the same name can be read concurrently.
+     *
+     * @param input the input
+     * @param structDict the structure definitions already read from the
+     * file, by name
+     * @return the structure descriptor
+     * @throws IOException when an I/O error occurs
+     * @throws UndefinedStructureException when the descriptor refers to a
+     * definition not read yet
+     * @throws Exception when the descriptor is not valid
+     */
+    public static HashMap<String, Object> read_structdesc(final SaveInput input, final Map<String, HashMap<String, Object>> structDict) throws IOException, Exception {
         HashMap<String, Object> structdesc = new HashMap<>();
-        int structstart = read_long(raf);
+        int structstart = read_long(input);
         if (structstart != 9) {
             throw new Exception("STRUCTSTART should be 9");
         }
-        structdesc.put("name", read_string(raf));
-        int predef = read_long(raf);
-        structdesc.put("ntags", read_long(raf));
-        structdesc.put("nbytes", read_long(raf));
+        structdesc.put("name", read_string(input));
+        int predef = read_long(input);
+        structdesc.put("ntags", read_long(input));
+        structdesc.put("nbytes", read_long(input));
         structdesc.put("predef", predef & 1);
         structdesc.put("inherits", predef & 2);
         structdesc.put("is_super", predef & 4);
@@ -195,64 +237,64 @@ public class Utils {
             HashMap[] tagtable = new HashMap[length];
             String[] name = new String[length];
             for (int i = 0; i < length; i++) {
-                tagtable[i] = read_tagdesc(raf);
+                tagtable[i] = read_tagdesc(input);
             }
             structdesc.put("tagtable", tagtable);
             for (HashMap tag : (HashMap[]) structdesc.get("tagtable")) {
-                tag.put("name", read_string(raf));
+                tag.put("name", read_string(input));
             }
             HashMap<String, Object> arrtable = new HashMap<>();
             for (HashMap tag : (HashMap[]) structdesc.get("tagtable")) {
-                if ((int) tag.get("array") == 1) {
-                    arrtable.put((String) tag.get("name"), read_arraydesc(raf));
+                if ((boolean) tag.get("array")) {
+                    arrtable.put((String) tag.get("name"), read_arraydesc(input));
                 }
             }
             structdesc.put("arrtable", arrtable);
 
             HashMap<String, Object> structtable = new HashMap<>();
             for (HashMap tag : (HashMap[]) structdesc.get("tagtable")) {
-                if ((int) tag.get("structure") == 1) {
-                    structtable.put((String) tag.get("name"), read_structdesc(raf));
+                if ((boolean) tag.get("structure")) {
+                    structtable.put((String) tag.get("name"), read_structdesc(input, structDict));
                 }
             }
             structdesc.put("structtable", structtable);
 
-            if ((int) structdesc.get("inherits") == 1 || (int) structdesc.get("is_super") == 1) {
-                structdesc.put("classname", read_string(raf));
-                structdesc.put("nsupclasses", read_long(raf));
+            if ((int) structdesc.get("inherits") != 0 || (int) structdesc.get("is_super") != 0) {
+                structdesc.put("classname", read_string(input));
+                structdesc.put("nsupclasses", read_long(input));
                 int lengthSupclassnames = (int) structdesc.get("nsupclasses");
                 String[] supclassnames = new String[lengthSupclassnames];
                 for (int i = 0; i < lengthSupclassnames; i++) {
-                    supclassnames[i] = read_string(raf);
+                    supclassnames[i] = read_string(input);
                 }
                 structdesc.put("supclassnames", supclassnames);
 
-                HashMap[] supclasstable = new HashMap[((HashMap[]) structdesc.get("nsupclasses")).length];
-                for (int i = 0; i < ((HashMap[]) structdesc.get("nsupclasses")).length; i++) {
-                    supclasstable[i] = read_structdesc(raf);
+                HashMap[] supclasstable = new HashMap[lengthSupclassnames];
+                for (int i = 0; i < lengthSupclassnames; i++) {
+                    supclasstable[i] = read_structdesc(input, structDict);
                 }
                 structdesc.put("supclasstable", supclasstable);
             }
-            STRUCT_DICT.put(structdesc.get("name"), structdesc);
+            structDict.put((String) structdesc.get("name"), structdesc);
 
         } else {
-            if (!STRUCT_DICT.containsKey(structdesc.get("name"))) {
-                throw new Exception("PREDEF=1 but can't find definition");
+            HashMap<String, Object> definition = structDict.get((String) structdesc.get("name"));
+            if (definition == null) {
+                throw new UndefinedStructureException((String) structdesc.get("name"));
             }
-
-            structdesc = (HashMap<String, Object>) STRUCT_DICT.get(structdesc.get("name"));
+            structdesc = definition;
         }
         return structdesc;
     }
 
-    private static HashMap<String, Object> read_tagdesc(RandomAccessFile raf) throws IOException {
+    private static HashMap<String, Object> read_tagdesc(SaveInput input) throws IOException {
         HashMap<String, Object> tagdesc = new HashMap<>();
-        tagdesc.put("offset", read_long(raf));
+        tagdesc.put("offset", read_long(input));
         if ((int) tagdesc.get("offset") == -1) {
-            tagdesc.put("offset", read_uint64(raf));
+            tagdesc.put("offset", read_uint64(input));
         }
-        tagdesc.put("typecode", read_long(raf));
-        int tagflags = read_long(raf);
+        tagdesc.put("typecode", read_long(input));
+        int tagflags = read_long(input);
         tagdesc.put("array", (tagflags & 4) == 4);
         tagdesc.put("structure", (tagflags & 32) == 32);
         tagdesc.put("scalar", DTYPE_DICT.containsKey(tagdesc.get("typecode")));
@@ -260,58 +302,289 @@ public class Utils {
         return tagdesc;
     }
 
-    public static Object read_structure(RandomAccessFile raf, HashMap array_desc, HashMap struct_desc) {
-        throw new UnsupportedOperationException("typedesc structure not implemented.");
-//        HashMap[] nrows = (HashMap[]) array_desc.get("nelements");
-//        HashMap[] columns = (HashMap[]) struct_desc.get("tagtable");
-//        for (HashMap col : columns) {
-//            if ((boolean) col.get("structure") || (boolean) col.get("array")) {
-//
-//            }
-//            //dtype.append(((col['name'].lower(), col['name']), np.object_))
-//
-//        }
-//        return null;
-    }
-
-    static Matrix read_array(RandomAccessFile raf, int typecode, HashMap array_desc) throws Exception {
-
-        //TODO : To be refactored to take into account typecode
-//        if (typecode == 1 || typecode == 3 || typecode == 4 ||
-//                typecode == 5 || typecode == 6 || typecode == 9 || typecode == 13 ||
-//                typecode == 14 || typecode == 15) {
-//            if (typecode == 1) {
-//                int nbBytes = read_int32(raf);
-//                if (nbBytes != (int) array_desc.get("nbytes")) {
-//                    throw new Exception("Error occurred while reading byte array");
-//                }
-//            }
-//            // read as numpy array
-//            byte[] data = new byte[(int) array_desc.get("nbytes")];
-//            raf.read(data);
-//            Array ok =  fromString(data, DTYPE_DICT.get(typecode));
-//
-//        } else if (typecode == 2 || typecode == 12) {
-//            // JC old version
-//            byte[] data = new byte[(int) array_desc.get("nbytes")];
-//            raf.read(data);
-//            ByteArrayInputStream bas = new ByteArrayInputStream(data);
-//            DataInputStream ds = new DataInputStream(bas);
-//            float[] fArr = new float[data.length / 4];  // 4 bytes per float
-//            for (int i = 0; i < fArr.length; i++) {
-//                fArr[i] = ds.readFloat();
-//            }
-//        }
-        byte[] data = new byte[(int) array_desc.get("nbytes")];
-        raf.read(data);
-        ByteArrayInputStream bas = new ByteArrayInputStream(data);
-        DataInputStream ds = new DataInputStream(bas);
-        float[] fArr = new float[data.length / 4];  // 4 bytes per float
-        for (int i = 0; i < fArr.length; i++) {
-            fArr[i] = ds.readFloat();
-        }
-
-        Matrix cube;
+    /**
+     * Converts a number of values to an int.
+     *
+     * @param value the number of values
+     * @return the number of values
+     * @throws ArithmeticException when the number exceeds 2^31 - 1
+     */
+    private static int checked_int(long value) {
+        if (value > Integer.MAX_VALUE) {
+            throw new ArithmeticException("Too many values for an array: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads an array of structures, stored by columns.
+     *
+     * @param input the input positioned on the first structure
+     * @param array_desc the description of the array of structures
+     * @param struct_desc the description of the structure
+     * @return the structures
+     * @throws IOException when the end of the file is reached
+     * @throws Exception when a tag has an unknown type
+     */
+    public static Structure read_structure(SaveInput input, HashMap array_desc, HashMap struct_desc) throws IOException, Exception {
+        int nbRows = checked_int(desc_long(array_desc, "nelements"));
+        int[] shape = Arrays.copyOf((int[]) array_desc.get("dims"), (int) array_desc.get("ndims"));
+        Structure structure = new Structure((String) struct_desc.get("name"), shape, nbRows);
+        StructLayout layout = new StructLayout(structure, "", struct_desc, 1);
+        for (int row = 0; row < nbRows; row++) {
+            layout.read(input, row);
+        }
+        return structure;
+    }
+
+    /**
+     * Columns receiving the tags of a structure. The tags of a nested
+     * structure are received by a nested layout.
+     */
+    private static final class StructLayout {
+
+        private final HashMap[] tags;
+        private final int[] typecodes;
+
+        /**
+         * Number of values of each tag in a structure.
+         */
+        private final int[] counts;
+        private final HashMap[] arrayDescs;
+
+        /**
+         * Column or nested layout of each tag.
+         */
+        private final Object[] targets;
+
+        /**
+         * Creates the columns of a structure.
+         *
+         * @param structure the structures receiving the columns
+         * @param prefix the prefix of the names of the columns
+         * @param struct_desc the description of the structure
+         * @param perRow the number of these structures in each row
+         * @throws Exception when a tag has an unknown type
+         */
+        StructLayout(Structure structure, String prefix, HashMap struct_desc, int perRow) throws Exception {
+            this.tags = (HashMap[]) struct_desc.get("tagtable");
+            HashMap arrtable = (HashMap) struct_desc.get("arrtable");
+            HashMap structtable = (HashMap) struct_desc.get("structtable");
+            this.typecodes = new int[this.tags.length];
+            this.counts = new int[this.tags.length];
+            this.arrayDescs = new HashMap[this.tags.length];
+            this.targets = new Object[this.tags.length];
+            for (int i = 0; i < this.tags.length; i++) {
+                HashMap tag = this.tags[i];
+                String tagName = (String) tag.get("name");
+                this.typecodes[i] = (int) tag.get("typecode");
+                this.counts[i] = 1;
+                if ((boolean) tag.get("array")) {
+                    this.arrayDescs[i] = (HashMap) arrtable.get(tagName);
+                    this.counts[i] = checked_int(desc_long(this.arrayDescs[i], "nelements"));
+                }
+                int count = checked_int((long) perRow * this.counts[i]);
+                if ((boolean) tag.get("structure")) {
+                    this.targets[i] = new StructLayout(structure, prefix + tagName + ".", (HashMap) structtable.get(tagName), count);
+                } else {
+                    long size = (long) structure.getRows() * count;
+                    Object values = create_column(this.typecodes[i], size);
+                    structure.addColumn(prefix + tagName, this.typecodes[i], isComplex(this.typecodes[i]) ? 2 * count : count, values);
+                    this.targets[i] = values;
+                }
+            }
+        }
+
+        /**
+         * Reads a structure.
+         *
+         * @param input the input positioned on the structure
+         * @param index the index of the structure among all those read by
+         * this layout
+         * @throws IOException when the end of the file is reached
+         * @throws Exception when a value is invalid
+         */
+        void read(SaveInput input, long index) throws IOException, Exception {
+            for (int i = 0; i < this.tags.length; i++) {
+                int count = this.counts[i];
+                if (this.targets[i] instanceof StructLayout) {
+                    StructLayout nested = (StructLayout) this.targets[i];
+                    for (int j = 0; j < count; j++) {
+                        nested.read(input, index * count + j);
+                    }
+                } else if (this.arrayDescs[i] != null) {
+                    read_tag_array(input, this.typecodes[i], this.targets[i], index * count, count, this.arrayDescs[i]);
+                } else {
+                    read_tag_value(input, this.typecodes[i], this.targets[i], index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether a type is complex.
+     *
+     * @param typecode the IDL type code
+     * @return true for the complex types
+     */
+    private static boolean isComplex(int typecode) {
+        return typecode == 6 || typecode == 9;
+    }
+
+    /**
+     * Creates the storage of a column of structures.
+     *
+     * @param typecode the IDL type code of the tag
+     * @param size the number of values
+     * @return a {@link MatrixData} or an array of String
+     * @throws Exception when the type cannot be stored in a column
+     */
+    private static Object create_column(int typecode, long size) throws Exception {
+        switch (typecode) {
+            case 6:
+                return MatrixData.create(4, 2 * size);
+            case 9:
+                return MatrixData.create(5, 2 * size);
+            case 7:
+                return new String[checked_int(size)];
+            case 10:
+            case 11:
+                // index in the heap
+                return MatrixData.create(3, size);
+            case 1:
+            case 2:
+            case 3:
+            case 4:
+            case 5:
+            case 12:
+            case 13:
+            case 14:
+            case 15:
+                return MatrixData.create(typecode, size);
+            default:
+                throw new Exception("Unknown IDL type " + typecode + " in a structure");
+        }
+    }
+
+    /**
+     * Reads a scalar tag of a structure.
+     *
+     * @param input the input positioned on the value
+     * @param typecode the IDL type code of the tag
+     * @param column the storage of the column
+     * @param index the index of the value in the column
+     * @throws IOException when the end of the file is reached
+     * @throws Exception when a byte value is invalid
+     */
+    private static void read_tag_value(SaveInput input, int typecode, Object column, long index) throws IOException, Exception {
+        if (typecode == 7) {
+            ((String[]) column)[(int) index] = read_string_data(input);
+            return;
+        }
+        MatrixData values = (MatrixData) column;
+        if (typecode == 1) {
+            if (read_long(input) != 1) {
+                throw new Exception("Error occurred while reading byte variable");
+            }
+            // the byte is the first one of a 32-bit word
+            values.decode(input.readBuffer(4), index, 1, 1);
+        } else if (isComplex(typecode)) {
+            values.decode(input.readBuffer(2 * values.elementSize()), 2 * index, 1, 2);
+        } else {
+            values.decode(input.readBuffer(values.elementSize()), index, 1, 1);
+        }
+    }
+
+    /**
+     * Reads an array tag of a structure.
+     *
+     * @param input the input positioned on the array
+     * @param typecode the IDL type code of the tag
+     * @param column the storage of the column
+     * @param index the index of the first value in the column
+     * @param count the number of values of the array
+     * @param array_desc the description of the array
+     * @throws IOException when the end of the file is reached
+     * @throws Exception when the size of a byte array is invalid
+     */
+    private static void read_tag_array(SaveInput input, int typecode, Object column, long index, int count, HashMap array_desc) throws IOException, Exception {
+        if (typecode == 1 && read_long(input) != (int) desc_long(array_desc, "nbytes")) {
+            throw new Exception("Error occurred while reading byte array");
+        }
+        if (typecode == 7) {
+            String[] strings = (String[]) column;
+            for (int i = 0; i < count; i++) {
+                strings[(int) index + i] = read_string_data(input);
+            }
+        } else if (isComplex(typecode)) {
+            decode_values(input, (MatrixData) column, 2 * index, 2L * count);
+        } else {
+            decode_values(input, (MatrixData) column, index, count);
+        }
+        align_32(input);
+    }
+
+    /**
+     * Reads an array, stored off-heap when it is larger than a threshold.
+     *
+     * An array with up to three dimensions different from 1 is returned as a
+     * {@link Matrix} in the {@link Matrix.Layout#FILE} layout, otherwise as a
+     * {@link NDArray} keeping the dimensions of the file. In both cases the
+     * values keep the order of the file : when the file is memory-mapped, an
+     * off-heap array is the mapped region of the file itself. An array of
+     * pointers holds the heap indices of the pointed variables.
+     *
+     * @param input the input positioned on the array
+     * @param typecode the IDL type code
+     * @param array_desc the description of the array
+     * @param offHeapThreshold the size in bytes from which the values are
+     * stored off-heap
+     * @return the matrix or the N-dimensional array
+     * @throws Exception when the array cannot be read
+     */
+    static Object read_array(SaveInput input, int typecode, HashMap array_desc, long offHeapThreshold) throws Exception {
+        if (typecode == 1) {
+            int nbBytes = read_int32(input);
+            // only the low 32 bits of the size of a 64-bit array are written
+            if (nbBytes != (int) desc_long(array_desc, "nbytes")) {
+                throw new Exception("Error occurred while reading byte array");
+            }
+        }
+        if (typecode == 10 || typecode == 11) {
+            // the heap indices of the pointed variables
+            typecode = 3;
+        }
+
+        Object result;
+        int[] dims = matrix_dims(array_desc);
+        if (dims == null) {
+            // kept in the order of IDL, the first dimension varying the fastest
+            int nbDims = (int) array_desc.get("ndims");
+            int[] shape = Arrays.copyOf((int[]) array_desc.get("dims"), nbDims);
+            long nbElts = 1;
+            for (int dim : shape) {
+                nbElts *= dim;
+            }
+            result = new NDArray(read_values(input, typecode, nbElts, offHeapThreshold), shape);
+        } else {
+            long nbElts = (long) dims[0] * dims[1] * dims[2];
+            // the values are used in the order of the file
+            result = new Matrix(dims[0], dims[1], dims[2], read_values(input, typecode, nbElts, offHeapThreshold), Matrix.Layout.FILE);
+        }
+
+        align_32(input);
+
+        return result;
+    }
+
+    /**
+     * Returns the size along x, y and z of the matrix holding an array.
+     *
+     * @param array_desc the description of the array
+     * @return the dimensions of the matrix, or null when the array has more
+     * than three dimensions
+     */
+    static int[] matrix_dims(HashMap array_desc) {
         int nbDims = (int) array_desc.get("ndims");
 
         int[] dims = new int[nbDims];
@@ -319,32 +592,278 @@ public class Utils {
 
         // Filtering useless '1' value in dimension tab
         int j = 0;
-        for (int i = 0; i < tmpDims.length; i++) {
+        for (int i = 0; i < nbDims; i++) {
             if (tmpDims[i] != 1) {
                 dims[j] = tmpDims[i];
                 j++;
             }
         }
+        if (j > 3) {
+            return null;
+        }
+        dims = Arrays.copyOf(dims, j);
         reverseArray(dims);
 
         int xDim = (dims.length >= 1) ? dims[0] : 1;
         int yDim = (dims.length >= 2) ? dims[1] : 1;
         int zDim = (dims.length == 3) ? dims[2] : 1;
-        cube = new Matrix(xDim, yDim, zDim); // 480, 120, 69 ==> 3974400
-
-        int indfArr = 0;
-        for (int d2 = 0; d2 < zDim; d2++) { // 69 plans
-            for (int d0 = 0; d0 < xDim; d0++) { // 480 lignes
-                for (int d1 = 0; d1 < yDim; d1++) { // 120 colonnes
-                    cube.setCubeValue(d0, d1, d2, fArr[indfArr]);
-                    indfArr++;
+        return new int[]{xDim, yDim, zDim};
+    }
+
+    /**
+     * Creates the storage of an array, off-heap when it is larger than a
+     * threshold or than 2 GB.
+     *
+     * @param typecode the IDL type code
+     * @param nbElts the number of values
+     * @param offHeapThreshold the size in bytes from which the values are
+     * stored off-heap
+     * @return the storage
+     */
+    static MatrixData create_values(int typecode, long nbElts, long offHeapThreshold) {
+        if (!is_off_heap(nbElts * OffHeapData.elementSize(typecode), offHeapThreshold)) {
+            return MatrixData.create(typecode, nbElts);
+        }
+        return OffHeapData.allocate(typecode, nbElts);
+    }
+
+    /**
+     * Tells whether an array is stored off-heap. The arrays larger than 2 GB
+     * are always stored off-heap.
+     *
+     * @param nbBytes the size of the array in the file
+     * @param offHeapThreshold the size in bytes from which the values are
+     * stored off-heap
+     * @return true to store the array off-heap
+     */
+    private static boolean is_off_heap(long nbBytes, long offHeapThreshold) {
+        return nbBytes >= offHeapThreshold || nbBytes > MatrixData.MAX_ARRAY_SIZE;
+    }
+
+    /**
+     * Reads the values of an array in the order of the file. An off-heap
+     * array of a memory-mapped file is left in the mapped file.
+     *
+     * @param input the input positioned on the first value
+     * @param typecode the IDL type code
+     * @param nbElts the number of values
+     * @param offHeapThreshold the size in bytes from which the values are
+     * stored off-heap
+     * @return the storage
+     * @throws IOException when the end of the file is reached
+     */
+    private static MatrixData read_values(SaveInput input, int typecode, long nbElts, long offHeapThreshold) throws IOException {
+        long nbBytes = nbElts * OffHeapData.elementSize(typecode);
+        MatrixData values;
+        if (is_off_heap(nbBytes, offHeapThreshold) && input instanceof MappedSaveInput) {
+            long position = input.getFilePointer();
+            values = OffHeapData.map(((MappedSaveInput) input).getChannel(), position, typecode, nbElts);
+            input.seek(position + nbBytes);
+        } else {
+            values = create_values(typecode, nbElts, offHeapThreshold);
+            decode_values(input, values, 0, nbElts);
+        }
+        return values;
+    }
+
+    /**
+     * Decodes consecutive values of an array by chunks.
+     *
+     * @param input the input positioned on the first value
+     * @param values the storage receiving the values
+     * @param index the index of the first value in the storage
+     * @param nbElts the number of values
+     * @throws IOException when the end of the file is reached
+     */
+    static void decode_values(SaveInput input, MatrixData values, long index, long nbElts) throws IOException {
+        int elementSize = values.elementSize();
+        int chunk = Math.max(1, DECODE_CHUNK_SIZE / elementSize);
+        for (long i = 0; i < nbElts; i += chunk) {
+            int count = (int) Math.min(chunk, nbElts - i);
+            values.decode(input.readBuffer(count * elementSize), index + i, 1, count);
+        }
+    }
+
+    /**
+     * Reads a region of a matrix from the file, without reading the rest of
+     * the array.
+     *
+     * The values selected along y for a given (x, z) are a run in the file.
+     * The runs are read in the order of the file and the runs separated by a
+     * small gap are read at once, the values of the gap being dropped.
+     *
+     * @param input the input positioned on the first value of the array
+     * @param typecode the IDL type code
+     * @param dims the dimensions of the matrix along x, y and z
+     * @param x the coordinates to read along x
+     * @param y the coordinates to read along y
+     * @param z the coordinates to read along z
+     * @return the region, in the order of the file
+     * @throws IOException when the end of the file is reached
+     * @throws IllegalArgumentException when a coordinate is outside of the
+     * matrix
+     */
+    static Matrix read_slab(SaveInput input, int typecode, int[] dims, Range x, Range y, Range z) throws IOException {
+        final int w = dims[0];
+        final int h = dims[1];
+        final Range rx = x.resolve(w);
+        final Range ry = y.resolve(h);
+        final Range rz = z.resolve(dims[2]);
+        final int nbXElts = rx.size();
+        int nbYElts = ry.size();
+        int nbZElts = rz.size();
+        MatrixData slab = MatrixData.create(typecode, (long) nbXElts * nbYElts * nbZElts);
+        int elementSize = slab.elementSize();
+        long dataStart = input.getFilePointer();
+
+        int yMin = Integer.MAX_VALUE;
+        int yMax = Integer.MIN_VALUE;
+        for (int i = 0; i < nbYElts; i++) {
+            yMin = Math.min(yMin, ry.get(i));
+            yMax = Math.max(yMax, ry.get(i));
+        }
+        final int span = yMax - yMin + 1;
+
+        // one run per (x, z), sorted by position in the file
+        Integer[] runs = new Integer[nbXElts * nbZElts];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = i;
+        }
+        final int firstY = yMin;
+        Comparator<Integer> byPosition = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(run_start(rx, rz, w, h, firstY, nbXElts, a), run_start(rx, rz, w, h, firstY, nbXElts, b));
+            }
+        };
+        Arrays.sort(runs, byPosition);
+
+        long gap = SLAB_GAP_SIZE / elementSize;
+        MatrixData values = MatrixData.create(typecode, Math.max(span, SLAB_READ_SIZE / elementSize));
+        int first = 0;
+        while (first < runs.length) {
+            // the runs read at once
+            long groupStart = run_start(rx, rz, w, h, yMin, nbXElts, runs[first]);
+            long groupEnd = groupStart + span;
+            int last = first + 1;
+            while (last < runs.length) {
+                long start = run_start(rx, rz, w, h, yMin, nbXElts, runs[last]);
+                long end = Math.max(groupEnd, start + span);
+                if (start - groupEnd > gap || end - groupStart > values.size()) {
+                    break;
+                }
+                groupEnd = end;
+                last++;
+            }
+
+            input.seek(dataStart + groupStart * elementSize);
+            decode_values(input, values, 0, groupEnd - groupStart);
+
+            for (int i = first; i < last; i++) {
+                int run = runs[i];
+                int iterX = run % nbXElts;
+                int iterZ = run / nbXElts;
+                long src = run_start(rx, rz, w, h, yMin, nbXElts, run) - groupStart - yMin;
+                long dst = (long) iterZ * nbXElts * nbYElts + (long) iterX * nbYElts;
+                if (ry.isRegular()) {
+                    values.copyTo(src + ry.getFirst(), ry.getStep(), slab, dst, 1, nbYElts);
+                } else {
+                    for (int iterY = 0; iterY < nbYElts; iterY++) {
+                        values.copyTo(src + ry.get(iterY), slab, dst + iterY, 1);
+                    }
                 }
             }
+            first = last;
         }
+        return new Matrix(nbXElts, nbYElts, nbZElts, slab, Matrix.Layout.FILE);
+    }
+
+    /**
+     * Reads the vectors along z of several pixels of a matrix from the file,
+     * without reading the rest of the array.
+     *
+     * The planes are read one after the other. In a plane, the pixels are
+     * read in the order of the file and the pixels separated by a small gap
+     * are read at once, the values of the gap being dropped.
+     *
+     * @param input the input positioned on the first value of the array
+     * @param typecode the IDL type code
+     * @param dims the dimensions of the matrix along x, y and z
+     * @param x the x coordinates of the pixels
+     * @param y the y coordinates of the pixels
+     * @param spectra the block receiving the vector of the pixel i from
+     * spectra[i * dims[2]]
+     * @throws IOException when the end of the file is reached
+     * @throws IllegalArgumentException when the arrays do not have matching
+     * lengths
+     * @throws IndexOutOfBoundsException when a pixel is outside of the matrix
+     */
+    static void read_spectra(SaveInput input, int typecode, int[] dims, int[] x, int[] y, double[] spectra) throws IOException {
+        int w = dims[0];
+        int h = dims[1];
+        int d = dims[2];
+        Matrix.checkSpectra(x, y, spectra, w, h, d);
+        // index of the pixels in a plane, in the order of the file
+        final long[] positions = new long[x.length];
+        Integer[] order = new Integer[x.length];
+        for (int i = 0; i < order.length; i++) {
+            positions[i] = (long) x[i] * h + y[i];
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(positions[a], positions[b]);
+            }
+        });
+
+        MatrixData values = MatrixData.create(typecode, Math.max(1, SLAB_READ_SIZE / OffHeapData.elementSize(typecode)));
+        int elementSize = values.elementSize();
+        long gap = SLAB_GAP_SIZE / elementSize;
+        long planeSize = (long) w * h;
+        long dataStart = input.getFilePointer();
+        for (int z = 0; z < d; z++) {
+            int first = 0;
+            while (first < order.length) {
+                // the pixels read at once
+                long groupStart = positions[order[first]];
+                long groupEnd = groupStart + 1;
+                int last = first + 1;
+                while (last < order.length) {
+                    long position = positions[order[last]];
+                    if (position - groupEnd > gap || position + 1 - groupStart > values.size()) {
+                        break;
+                    }
+                    groupEnd = Math.max(groupEnd, position + 1);
+                    last++;
+                }
 
-        align_32(raf);
+                input.seek(dataStart + (z * planeSize + groupStart) * elementSize);
+                decode_values(input, values, 0, groupEnd - groupStart);
 
-        return cube;
+                for (int k = first; k < last; k++) {
+                    int i = order[k];
+                    spectra[i * d + z] = values.get(positions[i] - groupStart);
+                }
+                first = last;
+            }
+        }
+    }
+
+    /**
+     * Returns the index in the array of the first value of a run of a slab.
+     *
+     * @param x the coordinates along x
+     * @param z the coordinates along z
+     * @param w the number of pixels of the array along x axis
+     * @param h the number of pixels of the array along y axis
+     * @param yMin the smallest coordinate along y
+     * @param nbXElts the number of coordinates along x
+     * @param run the index of the run, iterating over x first
+     * @return the index of the value in the array
+     */
+    private static long run_start(Range x, Range z, int w, int h, int yMin, int nbXElts, int run) {
+        return (long) z.get(run / nbXElts) * w * h + (long) x.get(run % nbXElts) * h + yMin;
     }
 
     /**
@@ -380,74 +899,68 @@ public class Utils {
         return doubles;
     }
 
-    static Object read_data(RandomAccessFile raf, int dtype) throws Exception {
+    static Object read_data(SaveInput input, int dtype) throws Exception {
 
         switch (dtype) {
             case 1:
-                if (read_int32(raf) != -1) {
+                if (read_int32(input) != 1) {
                     throw new Exception("Error occurred while reading byte variable");
                 }
-                return read_UnsignedByte(raf);
+                return read_UnsignedByte(input);
             case 2:
-                return read_int16(raf);
+                return read_int16(input);
             case 3:
-                return read_int32(raf);
+                return read_int32(input);
             case 4:
-                return read_float32(raf);
+                return read_float32(input);
             case 5:
-                return read_float64(raf);
+                return read_float64(input);
             case 6: {
-                float real = read_float32(raf);
-                float img = read_float32(raf);
+                float real = read_float32(input);
+                float img = read_float32(input);
                 return new Complex(real, img);
 //            return complex64(real + img * 1j); // 1j ???
             }
             case 7:
-                return read_string_data(raf);
+                return read_string_data(input);
             case 8:
                 throw new Exception("Should not be here - please report this");
             case 9: {
-                float real = read_float32(raf);
-                float img = read_float32(raf);
+                double real = read_float64(input);
+                double img = read_float64(input);
                 return new Complex(real, img);
 //            return complex128(real + img * 1j); // 1j ???
             }
-//            return Pointer(read_int32(raf));
             case 10:
-                break;
-//            return ObjectPointer(read_int32(raf));
             case 11:
-                break;
+                // heap index of the pointed variable
+                return read_int32(input);
             case 12:
-                return read_uint16(raf);
+                return read_uint16(input);
             case 13:
-                return read_uint32(raf);
+                return read_uint32(input);
             case 14:
-                return read_int64(raf);
+                return read_int64(input);
             case 15:
-                return read_uint64(raf);
+                return read_uint64(input);
             default:
                 throw new UnsupportedOperationException("Unknow IDL type" + dtype + " - please report this");
         }
-        return null;
 
 //        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
     /**
-     * Reads a Byte (-128 to 127).
+     * Reads an unsigned Byte (0 to 255), stored in the first byte of a 32-bit
+     * word.
      *
-     * @param raf the file where the 4 Bytes are read
+     * @param input the file where the 4 Bytes are read
      * @return a Byte
      */
-    private static short read_UnsignedByte(RandomAccessFile raf) {
-        byte[] data = new byte[1];
+    private static short read_UnsignedByte(SaveInput input) {
         byte byteData = -1;
         try {
-            raf.read(data);
-            ByteBuffer bb = ByteBuffer.allocate(data.length);
-            bb.put(data);            
-            return getUnsignedByte(bb);
+            return (short) (input.readInt() >>> 24);
         } catch (IOException e) {
         }
 
@@ -455,17 +968,16 @@ public class Utils {
     }
 
     /**
-     * Reads an Integer (-32768 to 32767)
+     * Reads an Integer (-32768 to 32767), stored in the low half of a 32-bit
+     * word.
      *
-     * @param raf the 4 Bytes where the file is read
+     * @param input the 4 Bytes where the file is read
      * @return a short Integer
      */
-    private static short read_int16(RandomAccessFile raf) {
-        byte[] data = new byte[2];
+    private static short read_int16(SaveInput input) {
         short shortData = -1;
         try {
-            raf.read(data);
-            shortData = ByteBuffer.wrap(data).getShort();
+            shortData = (short) input.readInt();
         } catch (IOException e) {
         }
 
@@ -475,15 +987,13 @@ public class Utils {
     /**
      * Reads an Integer (-2147483648 to 2147483647).
      *
-     * @param raf the 4 Bytes where the file is read
+     * @param input the 4 Bytes where the file is read
      * @return an Integer
      */
-    private static int read_int32(RandomAccessFile raf) {
-        byte[] data = new byte[4];
+    private static int read_int32(SaveInput input) {
         int intData = -1;
         try {
-            raf.read(data);
-            intData = ByteBuffer.wrap(data).getInt();
+            intData = input.readInt();
         } catch (IOException e) {
         }
         return intData;
@@ -493,15 +1003,13 @@ public class Utils {
     /**
      * Reads a Integer (-9223372036854775808 to 9223372036854775807).
      *
-     * @param raf the 4 Bytes where the file is read
+     * @param input the 4 Bytes where the file is read
      * @return an long integer
      */
-    private static long read_int64(RandomAccessFile raf) {
-        byte[] data = new byte[8];
+    private static long read_int64(SaveInput input) {
         long intData = -1;
         try {
-            raf.read(data);
-            intData = ByteBuffer.wrap(data).getLong();
+            intData = input.readLong();
         } catch (IOException e) {
         }
         return intData;
@@ -511,17 +1019,14 @@ public class Utils {
      * Reads a Single precision float (sign bit, 8 bits exponent, 23 bits
      * mantissa).
      *
-     * @param raf the 4 Bytes where the file is read
+     * @param input the 4 Bytes where the file is read
      * @return a Single precision float (sign bit, 8 bits exponent, 23 bits
      * mantissa)
      */
-    private static float read_float32(RandomAccessFile raf) {
-        byte[] data = new byte[4];
+    private static float read_float32(SaveInput input) {
         float floatData = -1;
         try {
-            raf.read(data);
-            floatData = ByteBuffer.wrap(data).getFloat();
-
+            floatData = input.readFloat();
         } catch (IOException e) {
         }
 
@@ -532,38 +1037,35 @@ public class Utils {
      * Reads a Double precision float: sign bit, 11 bits exponent, 52 bits
      * mantissa
      *
-     * @param raf the file where the bytes are read
+     * @param input the file where the bytes are read
      * @return a Double precision float
      */
-    private static double read_float64(RandomAccessFile raf) {
-        byte[] data = new byte[8];
+    private static double read_float64(SaveInput input) {
         double floatData = -1;
         try {
-            raf.read(data);
-            floatData = ByteBuffer.wrap(data).getDouble();
+            floatData = input.readDouble();
         } catch (IOException e) {
         }
 
         return floatData;
     }
 
-    public static final void align_32(RandomAccessFile raf) throws IOException {
-        long pos = raf.getFilePointer();
+    public static final void align_32(SaveInput input) throws IOException {
+        long pos = input.getFilePointer();
         if (pos % 4 != 0) {
-            raf.seek(pos + 4 - pos % 4);
+            input.seek(pos + 4 - pos % 4);
         }
     }
 
     /**
      * Skip length bytes.
      *
-     * @param raf the file where the bytes are read
+     * @param input the file where the bytes are read
      * @param length the length to skip
      * @throws IOException
      */
-    public static void skip_bytes(final RandomAccessFile raf, int length) throws IOException {
-        byte[] data = new byte[length];
-        raf.read(data);
+    public static void skip_bytes(final SaveInput input, int length) throws IOException {
+        input.seek(input.getFilePointer() + length);
     }
 
     /**
@@ -0,0 +1,40 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.util.HashMap;
+
+/**
+ * Selects the variables to decode while reading a SAVE file.
+ *
+ * The filter is called once the name and the type descriptor of a variable
+ * are known, before its data is read. Variables that are not accepted are
+ * skipped without being decoded.
+ */
+public interface VariableFilter {
+
+    /**
+     * Tells whether a variable must be decoded.
+     *
+     * @param varname the variable name in lower case
+     * @param typedesc the type descriptor of the variable
+     * @return true to decode the variable
+     */
+    boolean accept(String varname, HashMap<String, Object> typedesc);
+}
@@ -0,0 +1,132 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the batch reader.
+ */
+public class JSaveBatchTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<File> missingFiles(int count) {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            files.add(new File("target/missing-" + i + ".sav"));
+        }
+        return files;
+    }
+
+    /**
+     * Test of next method, of class JSaveBatch : every file is returned once,
+     * with its error when it cannot be read.
+     */
+    @Test
+    public void testNext() throws Exception {
+        System.out.println("next");
+        List<File> files = missingFiles(50);
+        Set<File> returned = new HashSet<>();
+        try (JSaveBatch instance = new JSaveBatch(files, null, 4, 6)) {
+            while (instance.hasNext()) {
+                JSaveBatch.Result result = instance.next();
+                assertNull(result.getReader());
+                assertTrue(result.getError() instanceof FileNotFoundException);
+                assertTrue(returned.add(result.getFile()));
+            }
+        }
+        assertEquals(new HashSet<>(files), returned);
+    }
+
+    /**
+     * Test of next method, of class JSaveBatch, on readable files mixed with
+     * missing ones.
+     */
+    @Test
+    public void testNextReadableFiles() throws Exception {
+        System.out.println("next readable files");
+        List<File> files = new ArrayList<>();
+        Set<File> readable = new HashSet<>();
+        for (int i = 0; i < 8; i++) {
+            File file = folder.newFile("file-" + i + ".sav");
+            Files.write(file.toPath(), JSaveTest.writeCubeFile(i % 2 == 1));
+            files.add(file);
+            readable.add(file);
+            files.add(new File(folder.getRoot(), "missing-" + i + ".sav"));
+        }
+        for (Set<String> variables : Arrays.asList(null, new HashSet<>(Arrays.asList("CARTE")))) {
+            Set<File> returned = new HashSet<>();
+            try (JSaveBatch instance = new JSaveBatch(files, variables, 3, 4)) {
+                while (instance.hasNext()) {
+                    JSaveBatch.Result result = instance.next();
+                    assertTrue(returned.add(result.getFile()));
+                    if (!readable.contains(result.getFile())) {
+                        assertNull(result.getReader());
+                        assertTrue(result.getError() instanceof FileNotFoundException);
+                        continue;
+                    }
+                    assertNull(result.getError());
+                    try (JSave reader = result.getReader()) {
+                        assertNotNull(reader);
+                        if (variables == null) {
+                            assertEquals(Arrays.asList("carte", "lati", "wave", "count"), new ArrayList<>(reader.getVariables().keySet()));
+                            assertEquals(42, ((Number) reader.getVariables().get("count")).intValue());
+                        } else {
+                            assertEquals(Arrays.asList("carte"), new ArrayList<>(reader.getVariables().keySet()));
+                        }
+                        assertEquals("5 x 4 x 3", ((Matrix) reader.getVariables().get("carte")).shape());
+                    }
+                }
+            }
+            assertEquals(new HashSet<>(files), returned);
+        }
+    }
+
+    /**
+     * Test of close method, of class JSaveBatch, before all the files are
+     * returned.
+     */
+    @Test
+    public void testClose() throws Exception {
+        System.out.println("close");
+        JSaveBatch instance = new JSaveBatch(missingFiles(50), null, 2);
+        assertNotNull(instance.next());
+        instance.close();
+        assertFalse(instance.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+        new JSaveBatch(missingFiles(1), null, 0);
+    }
+}
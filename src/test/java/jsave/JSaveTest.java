@@ -0,0 +1,465 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the reader.
+ */
+public class JSaveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a file holding an IDENTIFICATION record, a 2 x 3 float array
+     * CARTE and a long scalar COUNT.
+     */
+    static byte[] writeFile(boolean compressed) throws IOException {
+        return new SaveFileWriter(compressed)
+                .identification("author", "a title", "ID42")
+                .floatArray("CARTE", 2, 3)
+                .longScalar("COUNT", 42)
+                .toByteArray();
+    }
+
+    /**
+     * Writes a file holding a 5 x 4 x 3 float cube CARTE, a 5 x 4 float
+     * array LATI, a 3 float array WAVE and a long scalar COUNT.
+     */
+    static byte[] writeCubeFile(boolean compressed) throws IOException {
+        return new SaveFileWriter(compressed)
+                .floatArray("CARTE", 3, 4, 5)
+                .floatArray("LATI", 4, 5)
+                .floatArray("WAVE", 3)
+                .longScalar("COUNT", 42)
+                .toByteArray();
+    }
+
+    private static JSave read(byte[] data) throws Exception {
+        JSave reader = new JSave(new ByteArraySaveInput(data, data.length));
+        reader.read();
+        return reader;
+    }
+
+    private void checkSchema(SaveSchema schema) {
+        assertEquals("author", schema.getMetadata().get("author"));
+        assertEquals("a title", schema.getMetadata().get("title"));
+        assertEquals("ID42", schema.getMetadata().get("idcode"));
+        assertEquals(2, schema.getVariables().size());
+        SaveSchema.Variable carte = schema.getVariable("CARTE");
+        assertEquals("carte", carte.getName());
+        assertEquals(4, carte.getTypecode());
+        assertArrayEquals(new int[]{2, 3}, carte.getDims());
+        assertEquals(6, carte.getNelements());
+        assertTrue(carte.isArray());
+        SaveSchema.Variable count = schema.getVariable("count");
+        assertEquals(3, count.getTypecode());
+        assertArrayEquals(new int[0], count.getDims());
+        assertFalse(count.isArray());
+        assertNull(count.getStructName());
+    }
+
+    /**
+     * Test of read method, of class JSave, on a file without the SAVE
+     * signature.
+     */
+    @Test
+    public void testReadInvalidSignature() throws Exception {
+        System.out.println("read invalid signature");
+        byte[] data = writeCubeFile(false);
+        data[0] = 'X';
+        try {
+            read(data);
+            fail("Expected an Exception");
+        } catch (Exception ex) {
+            assertEquals("Invalid SIGNATURE: XR", ex.getMessage());
+        }
+    }
+
+    /**
+     * Test of readTableOfContents method, of class JSave, on a compressed
+     * file : the records are only inflated up to the end of their type
+     * descriptor, so that a damaged array is not noticed until it is read.
+     */
+    @Test
+    public void testReadTableOfContentsCompressed() throws Exception {
+        System.out.println("readTableOfContents compressed");
+        byte[] data = new SaveFileWriter(true)
+                .floatArray("CARTE", 10, 100, 100)
+                .longScalar("COUNT", 42)
+                .toByteArray();
+        // the checksum ending the zlib stream of CARTE
+        int nextrec = ByteBuffer.wrap(data).getInt(8);
+        data[nextrec - 1] ^= 0xff;
+
+        JSave instance = new JSave(new ByteArraySaveInput(data, data.length));
+        instance.readTableOfContents();
+        assertEquals(3, instance.getRecords().size());
+        assertEquals(400000, instance.getRecords().get(0).getNbytes());
+        assertEquals(42, ((Number) instance.getVariable("count")).intValue());
+        try {
+            instance.getVariable("carte");
+            fail("Expected an IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().startsWith("Invalid compressed record"));
+        }
+
+        instance = new JSave(new ByteArraySaveInput(data, data.length));
+        instance.read(new HashSet<>(Arrays.asList("count")));
+        assertEquals(Arrays.asList("count"), new ArrayList<>(instance.getVariables().keySet()));
+        assertEquals(42, ((Number) instance.getVariables().get("count")).intValue());
+    }
+
+    /**
+     * Test of read method, of class JSave, decoding only some variables.
+     */
+    @Test
+    public void testReadNames() throws Exception {
+        System.out.println("read names");
+        for (boolean compressed : new boolean[]{false, true}) {
+            byte[] data = writeCubeFile(compressed);
+            JSave instance = new JSave(new ByteArraySaveInput(data, data.length));
+            instance.read(new HashSet<>(Arrays.asList("LATI", "count")));
+            assertEquals(Arrays.asList("lati", "count"), new ArrayList<>(instance.getVariables().keySet()));
+            assertEquals(42, ((Number) instance.getVariables().get("count")).intValue());
+            assertArrayEquals(((Matrix) read(data).getVariables().get("lati")).getData(),
+                    ((Matrix) instance.getVariables().get("lati")).getData(), 0);
+            // the skipped variables are still listed
+            assertEquals(5, instance.getRecords().size());
+            assertEquals(42, ((Number) instance.getVariable("count")).intValue());
+        }
+    }
+
+    /**
+     * Test of getVariable method, of class JSave, on a variable skipped by
+     * read, once the file is closed.
+     */
+    @Test
+    public void testGetVariableSkipped() throws Exception {
+        System.out.println("getVariable skipped");
+        File file = new SaveFileWriter(false)
+                .floatArray("CARTE", 10, 100, 100)
+                .longScalar("COUNT", 42)
+                .write(folder.newFile());
+        JSave instance = new JSave(file);
+        instance.read(new HashSet<>(Arrays.asList("count")));
+        assertEquals(42, ((Number) instance.getVariable("count")).intValue());
+        try {
+            instance.getVariable("carte");
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException ex) {
+            assertEquals("Variable carte was not loaded and the file is closed", ex.getMessage());
+        }
+        try {
+            instance.readSlab("carte", "0", "0", "*");
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException ex) {
+        }
+        assertNull(instance.getVariable("missing"));
+    }
+
+    /**
+     * Test of read method, of class JSave, decoding the records with an
+     * executor.
+     */
+    @Test
+    public void testReadParallel() throws Exception {
+        System.out.println("read parallel");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (boolean compressed : new boolean[]{false, true}) {
+                byte[] data = writeCubeFile(compressed);
+                JSave expected = read(data);
+                JSave instance = new JSave(new ByteArraySaveInput(data, data.length));
+                instance.setExecutor(executor);
+                instance.read();
+                List<String> names = new ArrayList<>(expected.getVariables().keySet());
+                assertEquals(Arrays.asList("carte", "lati", "wave", "count"), names);
+                assertEquals(names, new ArrayList<>(instance.getVariables().keySet()));
+                for (Map.Entry<String, Object> variable : expected.getVariables().entrySet()) {
+                    Object value = instance.getVariables().get(variable.getKey());
+                    if (variable.getValue() instanceof Matrix) {
+                        assertArrayEquals(((Matrix) variable.getValue()).getData(), ((Matrix) value).getData(), 0);
+                    } else {
+                        assertEquals(variable.getValue(), value);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test of iteratePlanes method, of class JSave.
+     */
+    @Test
+    public void testIteratePlanes() throws Exception {
+        System.out.println("iteratePlanes");
+        for (boolean compressed : new boolean[]{false, true}) {
+            byte[] data = writeCubeFile(compressed);
+            Matrix expected = (Matrix) read(data).getVariables().get("carte");
+            for (int planesPerBlock = 1; planesPerBlock <= 3; planesPerBlock++) {
+                JSave reader = new JSave(new ByteArraySaveInput(data, data.length));
+                reader.readTableOfContents();
+                int z = 0;
+                try (PlaneIterator instance = reader.iteratePlanes("CARTE", planesPerBlock)) {
+                    assertEquals(expected.getDeep(), instance.getDeep());
+                    while (instance.hasNext()) {
+                        Matrix block = instance.next();
+                        assertEquals(z, instance.getPlaneIndex());
+                        for (int i = 0; i < block.getDeep(); i++, z++) {
+                            assertArrayEquals(expected.getPlane(z), block.getPlane(i), 0);
+                        }
+                    }
+                    assertEquals(expected.getDeep(), z);
+                    assertFalse(instance.hasNext());
+                    try {
+                        instance.next();
+                        fail("Expected a NoSuchElementException");
+                    } catch (NoSuchElementException ex) {
+                    }
+                }
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Test of readSlab method, of class JSave.
+     */
+    @Test
+    public void testReadSlab() throws Exception {
+        System.out.println("readSlab");
+        Range[][] selections = {
+            {Range.of(1, 3), Range.of(0, 2), Range.of(1, 2)},
+            {Range.all(), Range.all(), Range.at(2)},
+            {Range.of(0, 4, 2), Range.of(3, 0, -3), Range.all()},
+            {Range.indices(4, 0, 2), Range.indices(1, 3), Range.indices(2, 0)}
+        };
+        for (boolean compressed : new boolean[]{false, true}) {
+            byte[] data = writeCubeFile(compressed);
+            Matrix carte = (Matrix) read(data).getVariables().get("carte");
+            JSave instance = new JSave(new ByteArraySaveInput(data, data.length));
+            instance.readTableOfContents();
+            for (Range[] selection : selections) {
+                Matrix expected = carte.getSubMatrix(selection[0], selection[1], selection[2]);
+                Matrix slab = instance.readSlab("carte", selection[0], selection[1], selection[2]);
+                assertEquals(expected.shape(), slab.shape());
+                assertArrayEquals(expected.getData(), slab.getData(), 0);
+            }
+            assertArrayEquals(carte.getSubMatrix("1:3", "0:3:2", "2").getData(),
+                    instance.readSlab("carte", "1:3", "0:3:2", "2").getData(), 0);
+            assertTrue(instance.getVariables().isEmpty());
+            instance.close();
+        }
+    }
+
+    /**
+     * Test of readSpectra method, of class JSave.
+     */
+    @Test
+    public void testReadSpectra() throws Exception {
+        System.out.println("readSpectra");
+        int[] x = {4, 0, 2, 4, 1};
+        int[] y = {3, 0, 1, 0, 3};
+        for (boolean compressed : new boolean[]{false, true}) {
+            byte[] data = writeCubeFile(compressed);
+            Matrix carte = (Matrix) read(data).getVariables().get("carte");
+            int d = carte.getDeep();
+            JSave instance = new JSave(new ByteArraySaveInput(data, data.length));
+            instance.readTableOfContents();
+            double[] spectra = new double[x.length * d];
+            assertTrue(instance.readSpectra("carte", x, y, spectra));
+            for (int i = 0; i < x.length; i++) {
+                assertArrayEquals(carte.getVectorAlongZ(x[i], y[i]), Arrays.copyOfRange(spectra, i * d, (i + 1) * d), 0);
+            }
+            assertFalse(instance.readSpectra("missing", x, y, spectra));
+            instance.close();
+        }
+    }
+
+    /**
+     * Test of getHeapVariable method, of class JSave, through pointers.
+     */
+    @Test
+    public void testPointers() throws Exception {
+        System.out.println("pointers");
+        for (boolean compressed : new boolean[]{false, true}) {
+            byte[] data = new SaveFileWriter(compressed)
+                    .heapHeader(1, 2)
+                    .pointer("PTR", 1)
+                    .pointer("ARRPTR", 2)
+                    .pointer("NULLPTR", 0)
+                    .heapLong(1, 42)
+                    .heapFloatArray(2, 2, 3)
+                    .toByteArray();
+            JSave instance = read(data);
+            IdlPointer ptr = (IdlPointer) instance.getVariables().get("ptr");
+            assertEquals(1, ptr.getIndex());
+            assertFalse(ptr.isNull());
+            assertEquals(42, ((Number) ptr.get()).intValue());
+            assertSame(ptr.get(), instance.getHeapVariable(1));
+
+            Matrix array = (Matrix) ((IdlPointer) instance.getVariables().get("arrptr")).get();
+            assertEquals("3 x 2 x 1", array.shape());
+            assertEquals(5, array.getCubeValue(2, 1, 0), 0);
+
+            IdlPointer nullPtr = (IdlPointer) instance.getVariables().get("nullptr");
+            assertTrue(nullPtr.isNull());
+            assertNull(nullPtr.get());
+            assertNull(instance.getHeapVariable(3));
+            instance.close();
+        }
+    }
+
+    /**
+     * Test of read method, of class JSave, on a file holding a heap : the file
+     * is closed and the pointers are still dereferenced.
+     */
+    @Test
+    public void testPointersClosed() throws Exception {
+        System.out.println("pointersClosed");
+        for (boolean compressed : new boolean[]{false, true}) {
+            byte[] data = new SaveFileWriter(compressed)
+                    .heapHeader(1, 2)
+                    .pointer("PTR", 1)
+                    .pointer("ARRPTR", 2)
+                    .heapLong(1, 42)
+                    .heapFloatArray(2, 2, 3)
+                    .toByteArray();
+            final boolean[] closed = new boolean[1];
+            JSave instance = new JSave(new ByteArraySaveInput(data, data.length) {
+                @Override
+                public void close() {
+                    closed[0] = true;
+                }
+            });
+            instance.read();
+            assertTrue(closed[0]);
+            IdlPointer ptr = (IdlPointer) instance.getVariables().get("ptr");
+            assertEquals(42, ((Number) ptr.get()).intValue());
+            Matrix array = (Matrix) ((IdlPointer) instance.getVariables().get("arrptr")).get();
+            assertEquals(5, array.getCubeValue(2, 1, 0), 0);
+        }
+    }
+
+    /**
+     * Test of read method, of class JSave, on an array written with the
+     * 64-bit array descriptor.
+     */
+    @Test
+    public void testReadArrayDescriptor64() throws Exception {
+        System.out.println("readArrayDescriptor64");
+        for (boolean compressed : new boolean[]{false, true}) {
+            byte[] data = new SaveFileWriter(compressed)
+                    .floatArray("CARTE", 3, 4, 5)
+                    .floatArray64("CARTE64", 3, 4, 5)
+                    .toByteArray();
+            JSave instance = read(data);
+            Matrix expected = (Matrix) instance.getVariables().get("carte");
+            Matrix result = (Matrix) instance.getVariables().get("carte64");
+            assertEquals(expected.shape(), result.shape());
+            assertArrayEquals(expected.getData(), result.getData(), 0);
+            assertEquals(59, result.getCubeValue(4, 3, 2), 0);
+            instance.close();
+        }
+    }
+
+    /**
+     * Test of scan method, of class JSave.
+     */
+    @Test
+    public void testScan() throws Exception {
+        System.out.println("scan");
+        byte[] data = writeFile(false);
+        JSave instance = new JSave(new ByteArraySaveInput(data, data.length));
+        checkSchema(instance.scan());
+        assertTrue(instance.getVariables().isEmpty());
+    }
+
+    /**
+     * Test of scan method, of class JSave, on a compressed file.
+     */
+    @Test
+    public void testScanCompressed() throws Exception {
+        System.out.println("scan compressed");
+        byte[] data = writeFile(true);
+        checkSchema(new JSave(new ByteArraySaveInput(data, data.length)).scan());
+
+        JSave instance = new JSave(new ByteArraySaveInput(data, data.length));
+        instance.read();
+        assertEquals(42, ((Number) instance.getVariables().get("count")).intValue());
+        assertEquals("ID42", instance.getMetadata().get("idcode"));
+    }
+
+    /**
+     * Test of readTableOfContents method, of class JSave, with a sidecar
+     * index.
+     */
+    @Test
+    public void testReadTableOfContentsIndex() throws Exception {
+        System.out.println("readTableOfContents index");
+        File sav = folder.newFile("test.sav");
+        Files.write(sav.toPath(), writeFile(true));
+        File index = new File(sav.getPath() + ".idx");
+
+        try (JSave instance = new JSave(sav)) {
+            instance.readTableOfContents(index);
+        }
+        assertTrue(index.isFile());
+        long written = index.lastModified();
+
+        try (JSave instance = new JSave(sav)) {
+            instance.readTableOfContents(index);
+            assertEquals(written, index.lastModified());
+            assertEquals("ID42", instance.getMetadata().get("idcode"));
+            assertEquals(4, instance.getRecords().size());
+            assertEquals(42, ((Number) instance.getVariable("count")).intValue());
+            Matrix carte = (Matrix) instance.getVariable("carte");
+            assertEquals(5, carte.getData()[5], 0);
+        }
+
+        // an index which no longer matches the file is written again
+        Files.write(index.toPath(), new byte[]{1, 2, 3});
+        try (JSave instance = new JSave(sav)) {
+            instance.readTableOfContents(index);
+            assertEquals(42, ((Number) instance.getVariable("count")).intValue());
+        }
+        assertTrue(index.length() > 3);
+    }
+}
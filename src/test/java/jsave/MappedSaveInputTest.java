@@ -0,0 +1,154 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.EOFException;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the memory-mapped input, through a small window.
+ */
+public class MappedSaveInputTest {
+
+    private static final int WINDOW_SIZE = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a file holding the big-endian integers from 0 to count - 1.
+     */
+    private File writeIntegers(int count) throws Exception {
+        ByteBuffer data = ByteBuffer.allocate(4 * count);
+        for (int i = 0; i < count; i++) {
+            data.putInt(i);
+        }
+        File file = folder.newFile();
+        Files.write(file.toPath(), data.array());
+        return file;
+    }
+
+    /**
+     * Test of the read methods, of class MappedSaveInput, across the
+     * windows.
+     */
+    @Test
+    public void testReadAcrossWindows() throws Exception {
+        System.out.println("read across windows");
+        File file = writeIntegers(100);
+        ByteBuffer expected = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        try (MappedSaveInput instance = new MappedSaveInput(file, WINDOW_SIZE)) {
+            assertEquals(400, instance.length());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, instance.readInt());
+            }
+            // reads straddling two windows, backwards and forwards
+            for (long pos : new long[]{60, 62, 126, 2, 250, 190, 61}) {
+                instance.seek(pos);
+                assertEquals(expected.getLong((int) pos), instance.readLong());
+                assertEquals(pos + 8, instance.getFilePointer());
+                instance.seek(pos);
+                assertEquals(expected.getInt((int) pos), instance.readInt());
+                assertEquals(expected.getShort((int) pos + 4), instance.readShort());
+            }
+
+            // a read larger than the window
+            instance.seek(30);
+            byte[] bytes = new byte[200];
+            instance.readFully(bytes, 0, bytes.length);
+            for (int i = 0; i < bytes.length; i++) {
+                assertEquals(expected.get(30 + i), bytes[i]);
+            }
+            ByteBuffer buffer = instance.readBuffer(2 * WINDOW_SIZE);
+            assertEquals(2 * WINDOW_SIZE, buffer.remaining());
+            assertEquals(expected.getInt(232), buffer.getInt(2));
+            assertEquals(358, instance.getFilePointer());
+
+            instance.seek(398);
+            try {
+                instance.readInt();
+                fail("Expected an EOFException");
+            } catch (EOFException ex) {
+            }
+        }
+    }
+
+    /**
+     * Test of duplicate method, of class MappedSaveInput.
+     */
+    @Test
+    public void testDuplicate() throws Exception {
+        System.out.println("duplicate");
+        File file = writeIntegers(100);
+        try (MappedSaveInput instance = new MappedSaveInput(file, WINDOW_SIZE)) {
+            instance.seek(40);
+            SaveInput copy = instance.duplicate();
+            assertEquals(40, copy.getFilePointer());
+            copy.seek(300);
+            assertEquals(75, copy.readInt());
+            copy.close();
+            // the copy has its own cursor and does not close the file
+            assertEquals(10, instance.readInt());
+            instance.seek(396);
+            assertEquals(99, instance.readInt());
+        }
+    }
+
+    /**
+     * Test of read method, of class JSave, on a mapped file read through a
+     * small window.
+     */
+    @Test
+    public void testReadFile() throws Exception {
+        System.out.println("read file");
+        for (boolean compressed : new boolean[]{false, true}) {
+            byte[] data = JSaveTest.writeCubeFile(compressed);
+            File file = folder.newFile();
+            Files.write(file.toPath(), data);
+            JSave expected = new JSave(new ByteArraySaveInput(data, data.length));
+            expected.read();
+            for (long threshold : new long[]{Long.MAX_VALUE, 0}) {
+                JSave instance = new JSave(new MappedSaveInput(file, WINDOW_SIZE));
+                instance.setOffHeapThreshold(threshold);
+                instance.read();
+                assertEquals(expected.getVariables().keySet(), instance.getVariables().keySet());
+                for (Map.Entry<String, Object> variable : expected.getVariables().entrySet()) {
+                    Object value = instance.getVariables().get(variable.getKey());
+                    if (variable.getValue() instanceof Matrix) {
+                        assertArrayEquals(((Matrix) variable.getValue()).getData(), ((Matrix) value).getData(), 0);
+                    } else {
+                        assertEquals(variable.getValue(), value);
+                    }
+                }
+                MatrixData carte = ((Matrix) instance.getVariables().get("carte")).getMatrixData();
+                // mapped in place from a plain file, inflated off-heap otherwise
+                assertEquals(threshold == 0, carte instanceof OffHeapData);
+                instance.close();
+            }
+        }
+    }
+}
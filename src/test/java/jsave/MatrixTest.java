@@ -18,6 +18,8 @@
  ******************************************************************************/
 package jsave;
 
+import java.util.Arrays;
+
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -286,4 +288,280 @@ public class MatrixTest {
         int result = instance.getDeep();
         assertEquals(expResult, result);
     }   
+
+    /**
+     * Test of getSubMatrix method on a typed matrix.
+     */
+    @Test
+    public void testGetSubMatrixKeepsType() {
+        System.out.println("getSubMatrix typed");
+        LongData values = new LongData(new long[]{Long.MAX_VALUE, 1, -2, 3}, false);
+        Matrix typed = new Matrix(2, 1, 2, values);
+        Matrix subMatrix = typed.getSubMatrix("0", "0", "0:1");
+        assertTrue(subMatrix.getMatrixData() instanceof LongData);
+        assertEquals(Long.MAX_VALUE, ((LongData) subMatrix.getMatrixData()).getLong(0));
+        assertEquals(1, subMatrix.getCubeValue(0, 0, 1), 1e-10);
+    }
+
+    /**
+     * Test of the unsigned views of the typed storages.
+     */
+    @Test
+    public void testUnsignedView() {
+        System.out.println("unsigned view");
+        ShortData signed = new ShortData(new short[]{-1, 2}, false);
+        Matrix unsigned = new Matrix(2, 1, 1, signed.asUnsigned(true));
+        assertEquals(-1, signed.get(0), 1e-10);
+        assertEquals(65535, unsigned.getCubeValue(0, 0, 0), 1e-10);
+        assertEquals(12, unsigned.getTypecode());
+        assertEquals(Math.pow(2, 64), new LongData(new long[]{-1}, true).get(0), 0);
+    }
+
+    /**
+     * Test of a matrix stored off-heap.
+     */
+    @Test
+    public void testOffHeapMatrix() {
+        System.out.println("off-heap");
+        Matrix offHeap = new Matrix(3, 4, 2, OffHeapData.allocate(4, 24));
+        for (int z = 0; z < 2; z++) {
+            for (int y = 0; y < 4; y++) {
+                for (int x = 0; x < 3; x++) {
+                    offHeap.setCubeValue(x, y, z, instance.getCubeValue(x, y, z));
+                }
+            }
+        }
+        assertEquals(24L, offHeap.length());
+        assertArrayEquals(instance.getPlane(1), offHeap.getPlane(1), 1e-10);
+        assertArrayEquals(instance.getStats(), offHeap.getStats(), 1e-10);
+        Matrix subMatrix = offHeap.getSubMatrix("0:2", "1:2", "0");
+        assertTrue(subMatrix.getMatrixData() instanceof OffHeapData);
+        assertEquals(5, subMatrix.getCubeValue(2, 0, 0), 1e-10);
+    }
+
+    /**
+     * Test of the views sharing the storage of the matrix.
+     */
+    @Test
+    public void testViews() {
+        System.out.println("views");
+        Matrix subMatrix = instance.getSubMatrix("1:2", "1:3", "1");
+        assertSame(instance.getMatrixData(), subMatrix.getMatrixData());
+        assertFalse(subMatrix.isContiguous());
+        assertEquals(3, subMatrix.getCubeValue(0, 0, 0), 1e-10);
+        assertEquals(2, subMatrix.getCubeValue(1, 2, 0), 1e-10);
+        assertArrayEquals(new double[]{1, 3}, subMatrix.getStats(0), 1e-10);
+        assertArrayEquals(instance.getPlane(1), instance.getPlaneView(1).getPlane(0), 1e-10);
+        assertArrayEquals(instance.getVectorAlongZ(2, 0), instance.getVectorAlongZView(2, 0).getData(), 1e-10);
+        assertArrayEquals(instance.getPlaneYZ(0), instance.getPlaneYZView(0).getPlaneYZ(0), 1e-10);
+        assertArrayEquals(instance.getPlaneXZ(3), instance.getPlaneXZView(3).getPlaneXZ(0), 1e-10);
+    }
+
+    /**
+     * Test of copy method, of class Matrix.
+     */
+    @Test
+    public void testCopy() {
+        System.out.println("copy");
+        Matrix copy = instance.getSubMatrix("0:2", "1:2", "0:1").copy();
+        assertNotSame(instance.getMatrixData(), copy.getMatrixData());
+        assertTrue(copy.isContiguous());
+        assertEquals(6 * 2, copy.length());
+        assertArrayEquals(instance.getVectorAlongX(1, 1), copy.getVectorAlongX(0, 1), 1e-10);
+    }
+
+    /**
+     * Test of getSubMatrix method with steps and lists of coordinates.
+     */
+    @Test
+    public void testGetSubMatrixRanges() {
+        System.out.println("getSubMatrix ranges");
+        Matrix stepped = instance.getSubMatrix(Range.of(2, 0, -2), Range.of(0, 3, 2), Range.all());
+        assertEquals("2 x 2 x 2", stepped.shape());
+        assertSame(instance.getMatrixData(), stepped.getMatrixData());
+        assertEquals(2, stepped.getCubeValue(0, 1, 0), 1e-10);
+        assertEquals(1, stepped.getCubeValue(1, 0, 0), 1e-10);
+        assertEquals(3, stepped.getCubeValue(0, 1, 1), 1e-10);
+
+        Matrix picked = instance.getSubMatrix(Range.indices(2, 0), Range.at(1), Range.all());
+        assertNotSame(instance.getMatrixData(), picked.getMatrixData());
+        assertArrayEquals(new double[]{5, 1, 1, 7}, picked.getData(), 1e-10);
+        assertEquals(stepped.getCubeValue(1, 1, 0), instance.getSubMatrix("0:2:2", "0:3:2", "*").getCubeValue(0, 1, 0), 1e-10);
+    }
+
+    /**
+     * Test of getSubMatrix method with signed numbers and whitespace.
+     */
+    @Test
+    public void testGetSubMatrixSignedInput() {
+        System.out.println("getSubMatrix signed input");
+        Matrix expected = instance.getSubMatrix("0:2", "1:2", "1");
+        for (String[] input : new String[][]{
+            {"+0:+2", "1:2", "+1"},
+            {" 0 : 2 ", "1:2", " 1"},
+            {"0:2", "\t1:+2 ", "1 "},
+            {"0:2", "2:1:-1", "1"}}) {
+            Matrix subMatrix = instance.getSubMatrix(input[0], input[1], input[2]);
+            assertEquals(expected.shape(), subMatrix.shape());
+        }
+        assertArrayEquals(expected.getData(), instance.getSubMatrix("+0:+2", " 1 : 2", " +1 ").getData(), 1e-10);
+        assertEquals("3 x 4 x 2", instance.getSubMatrix(" * ", "*", "*").shape());
+    }
+
+    /**
+     * Test of getSubMatrix method with wrong inputs.
+     */
+    @Test
+    public void testGetSubMatrixWrongInput() {
+        System.out.println("getSubMatrix wrong input");
+        String[] inputs = {"a", "1:", "0:3", "1:0", "0:1:0", "0:1:2:3", "-1", "+", "1 1", "+-1", "--1", " : 1"};
+        for (String input : inputs) {
+            try {
+                instance.getSubMatrix(input, "0", "0");
+                fail(input);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Test of a matrix in the order of the SAVE file.
+     */
+    @Test
+    public void testFileLayout() {
+        System.out.println("file layout");
+        // y varies the fastest, then x, then z
+        FloatData values = new FloatData(new float[]{1, 1, 7, 4, 1, 2, 3, 1, 1, 5, 2, 2,
+            1, 7, 1, 0, 8, 3, 2, 1, 7, 1, 3, 2});
+        Matrix file = new Matrix(3, 4, 2, values, Matrix.Layout.FILE);
+        assertEquals(Matrix.Layout.FILE, file.getLayout());
+        assertArrayEquals(instance.getData(), file.getData(), 1e-10);
+        assertArrayEquals(instance.getStats(), file.getStats(), 1e-10);
+        assertArrayEquals(instance.getPlaneXZ(2), file.getPlaneXZ(2), 1e-10);
+
+        Matrix cube = file.copy(Matrix.Layout.CUBE);
+        assertTrue(cube.getMatrixData() instanceof FloatData);
+        assertArrayEquals(instance.getData(), cube.getData(), 1e-10);
+    }
+
+    /**
+     * Test of getSubMatrix method with lists of coordinates on a matrix in
+     * the order of the SAVE file.
+     */
+    @Test
+    public void testGetSubMatrixFileLayout() {
+        System.out.println("getSubMatrix file layout");
+        FloatData values = new FloatData(new float[]{1, 1, 7, 4, 1, 2, 3, 1, 1, 5, 2, 2,
+            1, 7, 1, 0, 8, 3, 2, 1, 7, 1, 3, 2});
+        Matrix file = new Matrix(3, 4, 2, values, Matrix.Layout.FILE);
+        Range[][] selections = {
+            {Range.indices(2, 0), Range.of(1, 3), Range.all()},
+            {Range.all(), Range.of(3, 0, -2), Range.indices(1)},
+            {Range.of(0, 2, 2), Range.indices(3, 0, 1), Range.at(0)}
+        };
+        for (Range[] selection : selections) {
+            Matrix expected = instance.getSubMatrix(selection[0], selection[1], selection[2]);
+            Matrix subMatrix = file.getSubMatrix(selection[0], selection[1], selection[2]);
+            assertEquals(Matrix.Layout.FILE, subMatrix.getLayout());
+            assertTrue(subMatrix.getMatrixData() instanceof FloatData);
+            assertEquals(expected.shape(), subMatrix.shape());
+            assertArrayEquals(expected.getData(), subMatrix.getData(), 1e-10);
+        }
+    }
+
+    /**
+     * Test of copy method to another layout, split between threads.
+     */
+    @Test
+    public void testParallelTranspose() {
+        System.out.println("parallel transpose");
+        int w = 70, h = 130, d = 150;
+        IntData values = new IntData(w * h * d, false);
+        for (int i = 0; i < w * h * d; i++) {
+            values.set(i, i);
+        }
+        Matrix file = new Matrix(w, h, d, values, Matrix.Layout.FILE);
+        Matrix cube = file.copy(Matrix.Layout.CUBE);
+        assertEquals(Matrix.Layout.CUBE, cube.getLayout());
+        int[] transposed = ((IntData) cube.getMatrixData()).getArray();
+        for (int x = 0; x < w; x++) {
+            for (int y = 0; y < h; y++) {
+                for (int z = 0; z < d; z++) {
+                    assertEquals((z * w + x) * h + y, transposed[(x * h + y) * d + z]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of getStatistics method, of class Matrix.
+     */
+    @Test
+    public void testGetStatistics() {
+        System.out.println("getStatistics");
+        Statistics plane = instance.getStatistics(0);
+        assertEquals(12, plane.getCount());
+        assertEquals(0, plane.getNanCount());
+        assertEquals(30, plane.getSum(), 1e-10);
+        assertEquals(2.5, plane.getMean(), 1e-10);
+        assertEquals(41.0 / 11, plane.getVariance(), 1e-10);
+
+        Matrix withNaN = instance.copy();
+        withNaN.setCubeValue(0, 2, 0, Double.NaN);
+        assertEquals(1, withNaN.getStatistics(0).getNanCount());
+        assertArrayEquals(new double[]{1, 5}, withNaN.getStats(0), 1e-10);
+        assertEquals(23, withNaN.getStatistics(0).getSum(), 1e-10);
+    }
+
+    /**
+     * Test of getStatistics method, split between threads.
+     */
+    @Test
+    public void testParallelStatistics() {
+        System.out.println("parallel statistics");
+        int w = 100, h = 100, d = 40;
+        FloatData values = new FloatData(w * h * d);
+        for (int i = 0; i < w * h * d; i++) {
+            values.set(i, i % (w * h));
+        }
+        Matrix file = new Matrix(w, h, d, values, Matrix.Layout.FILE);
+        for (int z = 0; z < d; z++) {
+            Statistics plane = file.getStatistics(z);
+            assertEquals(0, plane.getMin(), 0);
+            assertEquals(w * h - 1, plane.getMax(), 0);
+            assertEquals((w * h - 1) / 2.0, plane.getMean(), 1e-6);
+        }
+    }
+
+    /**
+     * Test of getSpectra method, in both layouts and split between threads.
+     */
+    @Test
+    public void testGetSpectra() {
+        System.out.println("getSpectra");
+        int w = 128, h = 96, d = 120;
+        FloatData values = new FloatData(w * h * d);
+        for (int i = 0; i < w * h * d; i++) {
+            values.set(i, i);
+        }
+        Matrix file = new Matrix(w, h, d, values, Matrix.Layout.FILE);
+        Matrix cube = file.copy(Matrix.Layout.CUBE);
+        int[] x = {127, 0, 5, 5, 64};
+        int[] y = {95, 0, 7, 6, 1};
+        for (Matrix m : new Matrix[]{file, cube}) {
+            for (boolean parallel : new boolean[]{false, true}) {
+                double[] spectra = new double[x.length * d];
+                m.getSpectra(x, y, spectra, parallel);
+                for (int i = 0; i < x.length; i++) {
+                    assertArrayEquals(m.getVectorAlongZ(x[i], y[i]), Arrays.copyOfRange(spectra, i * d, (i + 1) * d), 0);
+                }
+            }
+        }
+        try {
+            file.getSpectra(new int[]{w}, new int[]{0}, new double[d]);
+            fail("Expected an IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException ex) {
+        }
+    }
 }
@@ -0,0 +1,102 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the N-dimensional arrays.
+ */
+public class NDArrayTest {
+
+    /**
+     * 2 x 1 x 3 x 2 array holding 0..11, the first dimension varying the
+     * fastest.
+     */
+    NDArray instance;
+
+    public NDArrayTest() {
+        DoubleData values = new DoubleData(12);
+        for (int i = 0; i < 12; i++) {
+            values.set(i, i);
+        }
+        instance = new NDArray(values, 2, 1, 3, 2);
+    }
+
+    /**
+     * Test of get method, of class NDArray.
+     */
+    @Test
+    public void testGet() {
+        System.out.println("get");
+        assertEquals(0, instance.get(0, 0, 0, 0), 1e-10);
+        assertEquals(1, instance.get(1, 0, 0, 0), 1e-10);
+        assertEquals(4, instance.get(0, 0, 2, 0), 1e-10);
+        assertEquals(11, instance.get(1, 0, 2, 1), 1e-10);
+    }
+
+    /**
+     * Test of squeeze method, of class NDArray.
+     */
+    @Test
+    public void testSqueeze() {
+        System.out.println("squeeze");
+        NDArray squeezed = instance.squeeze();
+        assertArrayEquals(new int[]{2, 3, 2}, squeezed.getShape());
+        assertSame(instance.getMatrixData(), squeezed.getMatrixData());
+        assertEquals(11, squeezed.get(1, 2, 1), 1e-10);
+    }
+
+    /**
+     * Test of reshape method, of class NDArray.
+     */
+    @Test
+    public void testReshape() {
+        System.out.println("reshape");
+        NDArray reshaped = instance.reshape(6, 2);
+        assertSame(instance.getMatrixData(), reshaped.getMatrixData());
+        assertEquals(7, reshaped.get(1, 1), 1e-10);
+    }
+
+    /**
+     * Test of reshape method on a non-contiguous view, of class NDArray.
+     */
+    @Test
+    public void testReshapeView() {
+        System.out.println("reshape view");
+        // every other value along the first dimension
+        NDArray view = new NDArray(instance.getMatrixData(), new int[]{6}, new long[]{2}, 1);
+        assertFalse(view.isContiguous());
+        NDArray reshaped = view.reshape(3, 2);
+        assertNotSame(instance.getMatrixData(), reshaped.getMatrixData());
+        assertEquals(7, reshaped.get(0, 1), 1e-10);
+    }
+
+    /**
+     * Test of shape method, of class NDArray.
+     */
+    @Test
+    public void testShape() {
+        System.out.println("shape");
+        assertEquals("2 x 1 x 3 x 2", instance.shape());
+        assertEquals(12, instance.length());
+        assertEquals(4, instance.getRank());
+    }
+}
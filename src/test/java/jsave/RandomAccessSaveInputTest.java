@@ -0,0 +1,145 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.EOFException;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the positional-read cursor, around the edges of its 64 KB buffer.
+ */
+public class RandomAccessSaveInputTest {
+
+    private static final int EDGE = RandomAccessSaveInput.DEFAULT_BUFFER_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] data;
+
+    /**
+     * Writes a file of three buffers holding the big-endian integers from 0.
+     */
+    private File writeIntegers() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(3 * EDGE);
+        for (int i = 0; buffer.hasRemaining(); i++) {
+            buffer.putInt(i);
+        }
+        data = buffer.array();
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    /**
+     * Test of seek method, of class RandomAccessSaveInput, backwards and
+     * forwards across the edge of the buffer.
+     */
+    @Test
+    public void testSeek() throws Exception {
+        System.out.println("seek");
+        File file = writeIntegers();
+        ByteBuffer expected = ByteBuffer.wrap(data);
+        try (RandomAccessSaveInput instance = new RandomAccessSaveInput(file)) {
+            assertEquals(3 * EDGE, instance.length());
+            for (long pos : new long[]{0, EDGE - 4, EDGE - 2, EDGE + 6, 10, 2 * EDGE - 3, EDGE - 7, 3 * EDGE - 8}) {
+                instance.seek(pos);
+                assertEquals(pos, instance.getFilePointer());
+                assertEquals(expected.getLong((int) pos), instance.readLong());
+                assertEquals(pos + 8, instance.getFilePointer());
+                instance.seek(pos);
+                assertEquals(expected.getInt((int) pos), instance.readInt());
+                assertEquals(expected.getFloat((int) pos + 4), instance.readFloat(), 0);
+            }
+            // sequential reads through the refill
+            instance.seek(EDGE - 7);
+            assertEquals(expected.get(EDGE - 7), instance.readByte());
+            for (int pos = EDGE - 6; pos < EDGE + 10; pos += 2) {
+                assertEquals(expected.getShort(pos), instance.readShort());
+            }
+            instance.seek(3 * EDGE - 2);
+            try {
+                instance.readInt();
+                fail("Expected an EOFException");
+            } catch (EOFException ex) {
+            }
+        }
+    }
+
+    /**
+     * Test of readFully method, of class RandomAccessSaveInput, across a
+     * refill of the buffer and larger than the buffer.
+     */
+    @Test
+    public void testReadFully() throws Exception {
+        System.out.println("readFully");
+        File file = writeIntegers();
+        try (RandomAccessSaveInput instance = new RandomAccessSaveInput(file)) {
+            for (int[] read : new int[][]{{EDGE - 1000, 2000}, {10, EDGE + 5000}, {EDGE - 3, 2 * EDGE - 5}}) {
+                instance.seek(read[0]);
+                byte[] bytes = new byte[read[1] + 4];
+                instance.readFully(bytes, 4, read[1]);
+                assertArrayEquals(Arrays.copyOfRange(data, read[0], read[0] + read[1]),
+                        Arrays.copyOfRange(bytes, 4, bytes.length));
+                long pos = read[0] + read[1];
+                assertEquals(pos, instance.getFilePointer());
+                assertEquals(ByteBuffer.wrap(data).getInt((int) pos), instance.readInt());
+            }
+            instance.seek(3 * EDGE - 10);
+            try {
+                instance.readFully(new byte[EDGE + 10], 0, EDGE + 10);
+                fail("Expected an EOFException");
+            } catch (EOFException ex) {
+            }
+        }
+    }
+
+    /**
+     * Test of duplicate method, of class RandomAccessSaveInput.
+     */
+    @Test
+    public void testDuplicate() throws Exception {
+        System.out.println("duplicate");
+        File file = writeIntegers();
+        try (RandomAccessSaveInput instance = new RandomAccessSaveInput(file)) {
+            instance.seek(EDGE - 4);
+            SaveInput copy = instance.duplicate();
+            assertEquals(EDGE - 4, copy.getFilePointer());
+            assertEquals(EDGE / 4 - 1, copy.readInt());
+            assertEquals(EDGE / 4, copy.readInt());
+            copy.seek(8);
+            assertEquals(2, copy.readInt());
+            copy.close();
+            // the copy has its own cursor and shares the channel without
+            // closing it
+            assertEquals(EDGE - 4, instance.getFilePointer());
+            assertEquals(EDGE / 4 - 1, instance.readInt());
+            instance.seek(2 * EDGE);
+            assertEquals(EDGE / 2, instance.readInt());
+        }
+    }
+}
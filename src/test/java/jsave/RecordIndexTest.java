@@ -0,0 +1,108 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the index of a SAVE file.
+ */
+public class RecordIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test of write and read methods, of class RecordIndex, with the 64-bit
+     * offset of a structure tag.
+     */
+    @Test
+    public void testWriteBigInteger() throws Exception {
+        System.out.println("write BigInteger");
+        byte[] data = JSaveTest.writeFile(false);
+        File sav = folder.newFile("test.sav");
+        Files.write(sav.toPath(), data);
+        File index = new File(sav.getPath() + ".idx");
+        SaveInput input = new ByteArraySaveInput(data, data.length);
+
+        HashMap<String, Object> tag = new HashMap<>();
+        tag.put("offset", new BigInteger("4294967296"));
+        HashMap<String, Object> metadata = new HashMap<>();
+        metadata.put("tagtable", new HashMap[]{tag});
+        new RecordIndex(false, metadata, new ArrayList<RecordEntry>(), new HashMap<RecordEntry, Integer>())
+                .write(index, sav, input);
+
+        RecordIndex result = RecordIndex.read(index, sav, input);
+        assertNotNull(result);
+        HashMap[] tags = (HashMap[]) result.getMetadata().get("tagtable");
+        assertEquals(new BigInteger("4294967296"), tags[0].get("offset"));
+    }
+
+    /**
+     * Test of read method, of class RecordIndex, on a damaged index.
+     */
+    @Test
+    public void testReadDamaged() throws Exception {
+        System.out.println("read damaged");
+        byte[] data = JSaveTest.writeFile(true);
+        File sav = folder.newFile("test.sav");
+        Files.write(sav.toPath(), data);
+        File index = new File(sav.getPath() + ".idx");
+        try (JSave instance = new JSave(sav)) {
+            instance.readTableOfContents(index);
+        }
+        byte[] valid = Files.readAllBytes(index.toPath());
+        SaveInput input = new ByteArraySaveInput(data, data.length);
+        assertNotNull(RecordIndex.read(index, sav, input));
+
+        // truncated
+        Files.write(index.toPath(), Arrays.copyOf(valid, valid.length / 2));
+        assertNull(RecordIndex.read(index, sav, input));
+
+        // metadata which is not a map, after the header and the compression
+        // flag
+        byte[] damaged = valid.clone();
+        damaged[33] = 1;
+        Files.write(index.toPath(), damaged);
+        assertNull(RecordIndex.read(index, sav, input));
+
+        // length larger than the index
+        damaged = valid.clone();
+        damaged[34] = 0x7f;
+        Files.write(index.toPath(), damaged);
+        assertNull(RecordIndex.read(index, sav, input));
+
+        // the damaged index is written again
+        try (JSave instance = new JSave(sav)) {
+            instance.readTableOfContents(index);
+            assertEquals(42, ((Number) instance.getVariable("count")).intValue());
+        }
+        assertArrayEquals(valid, Files.readAllBytes(index.toPath()));
+    }
+}
@@ -0,0 +1,247 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Writes small SAVE files for the tests, plain or compressed.
+ */
+class SaveFileWriter {
+
+    private final boolean compressed;
+    private final ByteArrayOutputStream file = new ByteArrayOutputStream();
+    private ByteArrayOutputStream bytes;
+    private DataOutputStream out;
+
+    SaveFileWriter(boolean compressed) throws IOException {
+        this.compressed = compressed;
+        file.write(new byte[]{'S', 'R', 0, (byte) (compressed ? 6 : 4)});
+    }
+
+    private void beginRecord() {
+        bytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(bytes);
+    }
+
+    private void endRecord(int rectype) throws IOException {
+        out.flush();
+        byte[] body = bytes.toByteArray();
+        if (compressed && rectype != 6) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(body);
+            deflater.finish();
+            byte[] deflated = new byte[body.length + 64];
+            body = Arrays.copyOf(deflated, deflater.deflate(deflated));
+            deflater.end();
+        }
+        int nextrec = file.size() + 16 + body.length;
+        DataOutputStream header = new DataOutputStream(file);
+        header.writeInt(rectype);
+        header.writeInt(nextrec);
+        header.writeInt(0);
+        header.writeInt(0);
+        header.write(body);
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] chars = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(chars.length);
+        out.write(chars);
+        out.write(new byte[(4 - chars.length % 4) % 4]);
+    }
+
+    /**
+     * Writes an IDENTIFICATION record.
+     */
+    SaveFileWriter identification(String author, String title, String idcode) throws IOException {
+        beginRecord();
+        writeString(author);
+        writeString(title);
+        writeString(idcode);
+        endRecord(13);
+        return this;
+    }
+
+    /**
+     * Writes a float array whose values are their index in the file.
+     *
+     * @param name the variable name
+     * @param dims the IDL dimensions, the first one varying fastest
+     */
+    SaveFileWriter floatArray(String name, int... dims) throws IOException {
+        beginRecord();
+        writeString(name);
+        writeFloatArray(false, dims);
+        endRecord(2);
+        return this;
+    }
+
+    /**
+     * Writes a float array with the 64-bit array descriptor (ARRSTART 18),
+     * whose values are their index.
+     *
+     * @param name the variable name
+     * @param dims the IDL dimensions
+     */
+    SaveFileWriter floatArray64(String name, int... dims) throws IOException {
+        beginRecord();
+        writeString(name);
+        writeFloatArray(true, dims);
+        endRecord(2);
+        return this;
+    }
+
+    private void writeFloatArray(boolean descriptor64, int... dims) throws IOException {
+        out.writeInt(4);
+        out.writeInt(4);
+        int nelements = 1;
+        for (int dim : dims) {
+            nelements *= dim;
+        }
+        if (descriptor64) {
+            out.writeInt(18);
+            out.writeLong(0);
+            out.writeLong(4L * nelements);
+            out.writeLong(nelements);
+            out.writeInt(dims.length);
+            out.writeLong(0);
+            for (int i = 0; i < 8; i++) {
+                out.writeInt(0);
+                out.writeInt(i < dims.length ? dims[i] : 1);
+            }
+        } else {
+            out.writeInt(8);
+            out.writeInt(0);
+            out.writeInt(4 * nelements);
+            out.writeInt(nelements);
+            out.writeInt(dims.length);
+            out.writeLong(0);
+            out.writeInt(8);
+            for (int i = 0; i < 8; i++) {
+                out.writeInt(i < dims.length ? dims[i] : 1);
+            }
+        }
+        out.writeInt(7);
+        for (int i = 0; i < nelements; i++) {
+            out.writeFloat(i);
+        }
+    }
+
+    /**
+     * Writes a long scalar.
+     */
+    SaveFileWriter longScalar(String name, int value) throws IOException {
+        beginRecord();
+        writeString(name);
+        out.writeInt(3);
+        out.writeInt(0);
+        out.writeInt(7);
+        out.writeInt(value);
+        endRecord(2);
+        return this;
+    }
+
+    /**
+     * Writes a pointer scalar.
+     *
+     * @param name the variable name
+     * @param heapIndex the index of the pointed heap variable, 0 for a null
+     * pointer
+     */
+    SaveFileWriter pointer(String name, int heapIndex) throws IOException {
+        beginRecord();
+        writeString(name);
+        out.writeInt(10);
+        out.writeInt(0);
+        out.writeInt(7);
+        out.writeInt(heapIndex);
+        endRecord(2);
+        return this;
+    }
+
+    /**
+     * Writes the HEAP_HEADER record listing the heap indices.
+     */
+    SaveFileWriter heapHeader(int... indices) throws IOException {
+        beginRecord();
+        out.writeInt(indices.length);
+        for (int index : indices) {
+            out.writeInt(index);
+        }
+        endRecord(15);
+        return this;
+    }
+
+    /**
+     * Writes a long scalar in the heap.
+     */
+    SaveFileWriter heapLong(int heapIndex, int value) throws IOException {
+        beginRecord();
+        out.writeInt(heapIndex);
+        out.writeInt(0);
+        out.writeInt(3);
+        out.writeInt(0);
+        out.writeInt(7);
+        out.writeInt(value);
+        endRecord(16);
+        return this;
+    }
+
+    /**
+     * Writes a float array in the heap, whose values are their index.
+     */
+    SaveFileWriter heapFloatArray(int heapIndex, int... dims) throws IOException {
+        beginRecord();
+        out.writeInt(heapIndex);
+        out.writeInt(0);
+        writeFloatArray(false, dims);
+        endRecord(16);
+        return this;
+    }
+
+    /**
+     * Ends the file with an END_MARKER record.
+     *
+     * @return the bytes of the file
+     */
+    byte[] toByteArray() throws IOException {
+        beginRecord();
+        endRecord(6);
+        return file.toByteArray();
+    }
+
+    /**
+     * Ends the file and writes it.
+     *
+     * @param target the file written
+     * @return the file written
+     */
+    File write(File target) throws IOException {
+        Files.write(target.toPath(), toByteArray());
+        return target;
+    }
+}
@@ -0,0 +1,174 @@
+ /*******************************************************************************
+ * Copyright 2016 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of JSave.
+ *
+ * JSave is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JSave is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JSave.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package jsave;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the arrays of structures.
+ */
+public class StructureTest {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    private void writeString(String value) throws IOException {
+        byte[] chars = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(chars.length);
+        out.write(chars);
+        out.write(new byte[(4 - chars.length % 4) % 4]);
+    }
+
+    private void writeArrayDesc(int nbytes, int nelements) throws IOException {
+        out.writeInt(8);
+        out.writeInt(0);
+        out.writeInt(nbytes);
+        out.writeInt(nelements);
+        out.writeInt(1);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(8);
+        out.writeInt(nelements);
+        for (int i = 1; i < 8; i++) {
+            out.writeInt(1);
+        }
+    }
+
+    private void writeTag(int typecode, int flags) throws IOException {
+        out.writeInt(0);
+        out.writeInt(typecode);
+        out.writeInt(flags);
+    }
+
+    /**
+     * Test of read_structure method, of class Utils, on a structure
+     * {ID: long, NAME: string, SPEC: fltarr(2), SUB: {A: float}}.
+     */
+    @Test
+    public void testReadStructure() throws Exception {
+        System.out.println("read_structure");
+        out.writeInt(9);
+        writeString("ROW");
+        out.writeInt(0);
+        out.writeInt(4);
+        out.writeInt(0);
+        writeTag(3, 0);
+        writeTag(7, 0);
+        writeTag(4, 4);
+        writeTag(8, 36);
+        writeString("ID");
+        writeString("NAME");
+        writeString("SPEC");
+        writeString("SUB");
+        writeArrayDesc(8, 2);
+        writeArrayDesc(0, 1);
+        out.writeInt(9);
+        writeString("");
+        out.writeInt(0);
+        out.writeInt(1);
+        out.writeInt(0);
+        writeTag(4, 0);
+        writeString("A");
+        for (int row = 0; row < 3; row++) {
+            out.writeInt(100 + row);
+            out.writeInt(1);
+            out.writeInt(5);
+            out.write("row #".getBytes(StandardCharsets.UTF_8));
+            out.write(new byte[3]);
+            out.writeFloat(row);
+            out.writeFloat(-row);
+            out.writeFloat(row / 2f);
+        }
+        out.flush();
+        byte[] data = bytes.toByteArray();
+        SaveInput input = new ByteArraySaveInput(data, data.length);
+
+        HashMap structDesc = Utils.read_structdesc(input, new HashMap<String, HashMap<String, Object>>());
+        HashMap<String, Object> arrayDesc = new HashMap<>();
+        arrayDesc.put("nelements", 3);
+        arrayDesc.put("ndims", 1);
+        arrayDesc.put("dims", new int[]{3, 1, 1, 1, 1, 1, 1, 1});
+        Structure instance = Utils.read_structure(input, arrayDesc, structDesc);
+
+        assertEquals(data.length, input.getFilePointer());
+        assertEquals("ROW", instance.getName());
+        assertEquals(3, instance.getRows());
+        assertArrayEquals(new int[]{3}, instance.getShape());
+        assertArrayEquals(new Object[]{"ID", "NAME", "SPEC", "SUB.A"}, instance.getColumnNames().toArray());
+        assertEquals(3, instance.getTypecode("id"));
+        assertEquals(102, instance.getValue("id", 2), 0);
+        assertArrayEquals(new String[]{"row #", "row #", "row #"}, instance.getStrings("Name"));
+        assertEquals(2, instance.getValuesPerRow("spec"));
+        assertEquals(-1, instance.getValues("spec").get(3), 0);
+        assertEquals(1, instance.getValue("sub.a", 2), 0);
+        assertNull(instance.getColumn("missing"));
+        try {
+            instance.getValues("name");
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    private SaveInput structDesc(int typecode, boolean predef) throws IOException {
+        bytes.reset();
+        out.writeInt(9);
+        writeString("ROW");
+        out.writeInt(predef ? 1 : 0);
+        out.writeInt(1);
+        out.writeInt(4);
+        if (!predef) {
+            writeTag(typecode, 0);
+            writeString("VALUE");
+        }
+        out.flush();
+        byte[] data = bytes.toByteArray();
+        return new ByteArraySaveInput(data, data.length);
+    }
+
+    /**
+     * Test of read_structdesc method, of class Utils, on structures of the
+     * same name defined in two files.
+     */
+    @Test
+    public void testReadStructdescPredef() throws Exception {
+        System.out.println("read_structdesc");
+        HashMap<String, HashMap<String, Object>> first = new HashMap<>();
+        HashMap<String, HashMap<String, Object>> second = new HashMap<>();
+        HashMap<String, Object> longRow = Utils.read_structdesc(structDesc(3, false), first);
+        HashMap<String, Object> floatRow = Utils.read_structdesc(structDesc(4, false), second);
+
+        assertSame(longRow, Utils.read_structdesc(structDesc(0, true), first));
+        assertSame(floatRow, Utils.read_structdesc(structDesc(0, true), second));
+        assertEquals(4, ((HashMap[]) floatRow.get("tagtable"))[0].get("typecode"));
+        try {
+            Utils.read_structdesc(structDesc(0, true), new HashMap<String, HashMap<String, Object>>());
+            fail("Expected an UndefinedStructureException");
+        } catch (UndefinedStructureException ex) {
+            assertEquals("PREDEF=1 but can't find definition", ex.getMessage());
+            assertEquals("ROW", ex.getName());
+        }
+    }
+}